@@ -13,7 +13,10 @@
 
 package org.proton.plug;
 
+import java.util.List;
+
 import org.apache.qpid.proton.message.ProtonJMessage;
+import org.proton.plug.util.ChunkedBody;
 
 /**
  * @author Clebert Suconic
@@ -22,4 +25,17 @@ import org.apache.qpid.proton.message.ProtonJMessage;
 public interface AMQPClientSenderContext
 {
    void send(ProtonJMessage message);
+
+   /**
+    * It will send all the messages taking credits in bulk, with a single flush for each group of credits
+    * @param messages
+    */
+   void send(List<? extends ProtonJMessage> messages);
+
+   /**
+    * It will send a large message reading its body in chunks as the transport takes them
+    * @param message the message without a body
+    * @param body sent as a single Data section, it will be closed after sent
+    */
+   void send(ProtonJMessage message, ChunkedBody body) throws Exception;
 }
@@ -26,10 +26,20 @@ public interface AMQPConnectionCallback
    /**
     * this is called when bytes are available to be sent to the client.
     * you have to callback {@link org.proton.plug.AMQPConnectionContext#outputDone(int)} after you're done with this buffer
+    * on zero copy mode the buffer is a view over the Transport and it's only valid until outputDone is called.
+    * See {@link org.proton.plug.AMQPConnectionContext#setZeroCopyOutput(boolean)}
     * @param bytes
     */
    void onTransport(ByteBuf bytes, AMQPConnectionContext connection);
 
+   /**
+    * this is called after {@link org.proton.plug.AMQPConnectionContext#inputPaused()} returned true,
+    * once the connection consumed the bytes it was holding. You can start reading again (AUTO_READ on Netty for instance).
+    * It may be called from any thread
+    * @param connection
+    */
+   void onInputCapacity(AMQPConnectionContext connection);
+
    AMQPSessionCallback createSessionCallback(AMQPConnectionContext connection);
 
    // TODO: REMOVE THIS! The caller doing this can do it
@@ -13,6 +13,8 @@
 
 package org.proton.plug;
 
+import java.util.concurrent.Executor;
+
 import io.netty.buffer.ByteBuf;
 
 /**
@@ -37,18 +39,76 @@ public interface AMQPConnectionContext
    /**
     * This is for the Remoting layer to push bytes on the AMQP Connection
     * The buffer readerIndex should be at the latest read byte after this method is called
+    * If the Transport has no capacity for all the bytes, the remaining bytes are kept by the connection and this
+    * will return false. You should stop reading and then call {@link #inputPaused()}.
     * @param buffer
-    * @return
+    * @return false if you should stop reading from the network
+    */
+   boolean inputBuffer(ByteBuf buffer);
+
+   /**
+    * To be called after you stopped reading because {@link #inputBuffer(ByteBuf)} returned false.
+    * A flush from another thread may have consumed the held bytes before you stopped, in which case
+    * {@link AMQPConnectionCallback#onInputCapacity(AMQPConnectionContext)} is not called and this returns false.
+    * <pre>
+    * if (!connection.inputBuffer(buffer))
+    * {
+    *    channel.config().setAutoRead(false);
+    *    if (!connection.inputPaused())
+    *    {
+    *       channel.config().setAutoRead(true);
+    *    }
+    * }
+    * </pre>
+    * @return true if you should stay stopped until onInputCapacity, false if you should read again right away
     */
-   void inputBuffer(ByteBuf buffer);
+   boolean inputPaused();
 
    void flush();
 
+   /**
+    * On batched flush mode sending a message will only mark the connection dirty,
+    * and a single flush will write all the pending deliveries together.
+    * @param deliveries number of deliveries after which the flush happens right away, 0 disables batching
+    * @param executor where the flush is scheduled once the connection is dirty (the channel's event loop for instance),
+    *                 if null you have to call {@link #flush()} yourself
+    */
+   void setBatchFlush(int deliveries, Executor executor);
+
+   /**
+    * Pins the connection to a single executor, usually the Netty event loop calling {@link #inputBuffer(ByteBuf)}.
+    * Deliveries from broker threads will be encoded on the calling thread and the Proton work will be submitted
+    * as a task to this executor instead of competing for {@link #getLock()}.
+    * Large messages are also read and sent in chunks from this executor, while the broker thread waits for them,
+    * so a large message can't be sent from the executor itself. It fails right away from the event loop or from a task
+    * given by this library, a task of your own on a plain executor would just hang.
+    * Only the sends are moved to the executor: acks, flow and the receivers still take {@link #getLock()} on whichever
+    * thread calls them. A delivery that reaches the executor after its link was closed is given back to the broker
+    * through {@link AMQPSessionCallback#cancel(Object, Object, boolean)}.
+    * @param executor null to keep broker threads working directly under the lock
+    */
+   void setExecutor(Executor executor);
+
+   /**
+    * It will send keep alive frames as required by the peer, and it will close the connection
+    * when nothing was received for idleTimeout milliseconds. All the connections share the same timer.
+    * @param idleTimeout in milliseconds, 0 to disable
+    */
+   void setIdleTimeout(int idleTimeout);
+
    /**
     * To be called when the bytes were sent down the stream (flushed on the socket for example)
     * @param numberOfBytes
     */
    void outputDone(int numberOfBytes);
 
+   /**
+    * On zero copy mode the buffers given to {@link AMQPConnectionCallback#onTransport(ByteBuf, AMQPConnectionContext)}
+    * are read only views over the Transport, and they are only valid until you call {@link #outputDone(int)}.
+    * You should only call outputDone after the bytes were written (on the write future for instance).
+    * @param zeroCopy
+    */
+   void setZeroCopyOutput(boolean zeroCopy);
+
 
 }
@@ -19,6 +19,23 @@ package org.proton.plug;
 
 public abstract class AMQPConnectionContextFactory
 {
+   protected AMQPConnectionOptions options;
+
+   public AMQPConnectionContextFactory()
+   {
+      this(new AMQPConnectionOptions());
+   }
+
+   public AMQPConnectionContextFactory(AMQPConnectionOptions options)
+   {
+      this.options = options;
+   }
+
+   public AMQPConnectionOptions getOptions()
+   {
+      return options;
+   }
+
    /**
     * @return
     */
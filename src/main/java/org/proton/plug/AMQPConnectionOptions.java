@@ -0,0 +1,141 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Transport and session tuning applied to every connection created by a {@link AMQPConnectionContextFactory}.
+ * The defaults favour throughput: large frames, so big messages need fewer transfers,
+ * and a session window wide enough to keep many of those frames in flight.
+ *
+ * @author Clebert Suconic
+ */
+public class AMQPConnectionOptions
+{
+   public static final int DEFAULT_MAX_FRAME_SIZE = 128 * 1024;
+
+   public static final int DEFAULT_CHANNEL_MAX = 65535;
+
+   public static final int DEFAULT_SESSION_INCOMING_CAPACITY = 16 * 1024 * 1024;
+
+   private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+   private int channelMax = DEFAULT_CHANNEL_MAX;
+
+   private int sessionIncomingCapacity = DEFAULT_SESSION_INCOMING_CAPACITY;
+
+   private int streamingChunkSize = 0;
+
+   private boolean asyncServerSend = false;
+
+   private Executor serverSendExecutor;
+
+   public int getMaxFrameSize()
+   {
+      return maxFrameSize;
+   }
+
+   /**
+    * The largest frame we accept, the peer will split transfers bigger than this
+    * @param maxFrameSize in bytes
+    */
+   public AMQPConnectionOptions setMaxFrameSize(int maxFrameSize)
+   {
+      this.maxFrameSize = maxFrameSize;
+      return this;
+   }
+
+   public int getChannelMax()
+   {
+      return channelMax;
+   }
+
+   /**
+    * The highest channel number, which limits how many sessions can be open on the connection
+    * @param channelMax
+    */
+   public AMQPConnectionOptions setChannelMax(int channelMax)
+   {
+      this.channelMax = channelMax;
+      return this;
+   }
+
+   public int getSessionIncomingCapacity()
+   {
+      return sessionIncomingCapacity;
+   }
+
+   /**
+    * The bytes a session will buffer from the peer.
+    * The incoming window advertised to the peer is this capacity divided by the max frame size.
+    * @param sessionIncomingCapacity in bytes, 0 for an unlimited window
+    */
+   public AMQPConnectionOptions setSessionIncomingCapacity(int sessionIncomingCapacity)
+   {
+      this.sessionIncomingCapacity = sessionIncomingCapacity;
+      return this;
+   }
+
+   public int getStreamingChunkSize()
+   {
+      return streamingChunkSize;
+   }
+
+   /**
+    * Incoming messages bigger than this are given to
+    * {@link AMQPSessionCallback#serverSendChunk(org.apache.qpid.proton.engine.Receiver, org.apache.qpid.proton.engine.Delivery, String, int, io.netty.buffer.ByteBuf, boolean)}
+    * in chunks of up to this size as they arrive, instead of being held in memory until complete.
+    * @param streamingChunkSize in bytes, 0 (the default) to disable streaming
+    */
+   public AMQPConnectionOptions setStreamingChunkSize(int streamingChunkSize)
+   {
+      this.streamingChunkSize = streamingChunkSize;
+      return this;
+   }
+
+   public boolean isAsyncServerSend()
+   {
+      return asyncServerSend;
+   }
+
+   /**
+    * Incoming messages go to the asynchronous serverSend, and are only settled once the broker completes them.
+    * @see AMQPSessionCallback#serverSend(org.apache.qpid.proton.engine.Receiver, org.apache.qpid.proton.engine.Delivery, String, int, io.netty.buffer.ByteBuf, AMQPSendCompletion)
+    */
+   public AMQPConnectionOptions setAsyncServerSend(boolean asyncServerSend)
+   {
+      this.asyncServerSend = asyncServerSend;
+      return this;
+   }
+
+   public Executor getServerSendExecutor()
+   {
+      return serverSendExecutor;
+   }
+
+   /**
+    * serverSend will be called from this executor instead of under the connection lock, so routing and storing
+    * a message won't hold deliveries going out on the same connection. Each receiver link uses it through
+    * an {@link org.proton.plug.util.OrderedExecutor}, so the messages of a link keep their order.
+    * Messages are settled once serverSend returned (or completed, when asynchronous). Notice a transaction
+    * coordinator is a link of its own, so a broker using transactions has to finish the pending sends before a discharge.
+    * @param serverSendExecutor a shared pool, null (the default) to call serverSend from the connection's thread
+    */
+   public AMQPConnectionOptions setServerSendExecutor(Executor serverSendExecutor)
+   {
+      this.serverSendExecutor = serverSendExecutor;
+      return this;
+   }
+}
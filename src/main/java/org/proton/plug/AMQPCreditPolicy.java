@@ -0,0 +1,42 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug;
+
+/**
+ * Decides the credits given to producers on a receiver link.
+ * There is one instance per link, and it's always called with the connection lock held.
+ *
+ * @author Clebert Suconic
+ */
+public interface AMQPCreditPolicy
+{
+   /**
+    * The credits given when the link is attached
+    */
+   int getInitialCredits();
+
+   /**
+    * Called after each message was given to the broker, or when {@link AMQPSessionContext#updateCredits()} was called.
+    *
+    * @param remoteCredit the credits the producer still has
+    * @param sendNanos how long serverSend took for the last message, or -1 if this wasn't called for a message
+    * @return the credits to add, 0 for none
+    */
+   int getCredits(int remoteCredit, long sendNanos);
+
+   /**
+    * Called through {@link AMQPSessionContext#setMemoryPressure(boolean)}, a policy that doesn't care can ignore it
+    */
+   void setMemoryPressure(boolean memoryPressure);
+}
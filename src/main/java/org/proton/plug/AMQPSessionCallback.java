@@ -13,6 +13,8 @@
 
 package org.proton.plug;
 
+import java.util.List;
+
 import io.netty.buffer.ByteBuf;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.engine.Delivery;
@@ -34,6 +36,10 @@ public interface AMQPSessionCallback
 
    void onFlowConsumer(Object consumer, int credits);
 
+   /**
+    * @param filer the jms-selector of the consumer, it's also compiled at {@link ProtonPlugSender#getSelector()}
+    *              so it can be evaluated on the messages without parsing it again
+    */
    Object createSender(ProtonPlugSender protonSender, String queue, String filer, boolean browserOnly) throws Exception;
 
    void startSender(Object brokerConsumer) throws Exception;
@@ -44,6 +50,13 @@ public interface AMQPSessionCallback
 
    void closeSender(Object brokerConsumer) throws Exception;
 
+   /**
+    * @param address the address of a new receiver link
+    * @return the credit policy for the link, or null for an {@link org.proton.plug.util.AdaptiveCreditPolicy} with the defaults.
+    *         Either way {@link AMQPSessionContext#setMemoryPressure(boolean)} reaches it.
+    */
+   AMQPCreditPolicy createCreditPolicy(String address);
+
    // This one can be a lot improved
    ProtonJMessage encodeMessage(Object message, int deliveryCount) throws Exception;
 
@@ -60,6 +73,14 @@ public interface AMQPSessionCallback
 
    void ack(Object brokerConsumer, Object message) throws Exception;
 
+   /**
+    * The acks received for a consumer while processing a batch of input, in the order they arrived.
+    * The deliveries are only settled after this returns.
+    * @param brokerConsumer
+    * @param messages only valid during the call, the list is reused
+    */
+   void ackBatch(Object brokerConsumer, List<Object> messages) throws Exception;
+
    /**
     * @param brokerConsumer
     * @param message
@@ -78,8 +99,34 @@ public interface AMQPSessionCallback
     * @param delivery
     * @param address
     * @param messageFormat
-    * @param messageEncoded a Heap Buffer ByteBuffer (safe to convert into byte[])
+    * @param messageEncoded a Heap Buffer ByteBuffer (safe to convert into byte[]). It's reused for the next message of
+    *                       the link, so it has to be copied or retain()ed if it's kept after the call
     */
    void serverSend(Receiver receiver, Delivery delivery, String address, int messageFormat, ByteBuf messageEncoded) throws Exception;
 
+   /**
+    * Asynchronous version of serverSend, used when {@link AMQPConnectionOptions#setAsyncServerSend(boolean)} is set.
+    * The message has to be taken during the call, but it can be stored later. The delivery is settled and
+    * the producer gets its outcome when the completion is called, so many durable writes can be in flight
+    * and committed together by the broker.
+    *
+    * @param messageEncoded a Heap Buffer, only valid during the call unless retain()ed
+    * @param completion to be called once, from any thread
+    */
+   void serverSend(Receiver receiver, Delivery delivery, String address, int messageFormat, ByteBuf messageEncoded, AMQPSendCompletion completion) throws Exception;
+
+   /**
+    * Streaming version of serverSend, used for large messages when {@link AMQPConnectionOptions#setStreamingChunkSize(int)} is set.
+    * It is called for each chunk of the message in order as it arrives, so the message can be spooled (to disk for instance)
+    * without being held in memory.
+    * The delivery is only settled after the last chunk was taken.
+    *
+    * @param delivery the same delivery is given for every chunk of a message
+    * @param address
+    * @param messageFormat
+    * @param chunk a Heap Buffer with the next bytes of the encoded message, only valid during the call
+    * @param last true on the last chunk of the message
+    */
+   void serverSendChunk(Receiver receiver, Delivery delivery, String address, int messageFormat, ByteBuf chunk, boolean last) throws Exception;
+
 }
@@ -32,4 +32,18 @@ public interface AMQPSessionContext
    void removeSender(Sender sender) throws HornetQAMQPException;
 
    void removeReceiver(Receiver receiver);
+
+   /**
+    * It will ask the credit policy of every receiver for more credits,
+    * for instance after the broker is no longer under memory pressure
+    * @see AMQPCreditPolicy
+    */
+   void updateCredits();
+
+   /**
+    * It will tell the credit policy of every receiver the broker is (or is no longer) under memory pressure,
+    * including the default policy used when {@link AMQPSessionCallback#createCreditPolicy(String)} returned null.
+    * When the pressure is over the receivers are asked for more credits right away.
+    */
+   void setMemoryPressure(boolean memoryPressure);
 }
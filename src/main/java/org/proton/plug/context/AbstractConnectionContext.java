@@ -13,17 +13,30 @@
 
 package org.proton.plug.context;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
 import org.apache.qpid.proton.engine.Connection;
 import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Event;
 import org.apache.qpid.proton.engine.Link;
 import org.apache.qpid.proton.engine.Session;
 import org.apache.qpid.proton.engine.Transport;
 import org.proton.plug.AMQPConnectionCallback;
 import org.proton.plug.AMQPConnectionContext;
+import org.proton.plug.AMQPConnectionOptions;
 import org.proton.plug.exceptions.HornetQAMQPException;
 import org.proton.plug.handler.ProtonHandler;
 import org.proton.plug.SASLResult;
@@ -34,20 +47,75 @@ import org.proton.plug.util.DebugInfo;
 /**
  * Clebert Suconic
  */
-public abstract class AbstractConnectionContext extends ProtonInitializable implements AMQPConnectionContext
+public abstract class AbstractConnectionContext extends ProtonInitializable implements AMQPConnectionContext, IdleTimeoutManager.Tickable
 {
 
    protected ProtonHandler handler = ProtonHandler.Factory.create();
 
    protected AMQPConnectionCallback connectionCallback;
 
+   protected final AMQPConnectionOptions options;
+
    private final Map<Session, AbstractProtonSessionContext> sessions = new ConcurrentHashMap<>();
 
+   private volatile int flushBatchSize = 0;
+
+   private volatile Executor flushExecutor;
+
+   private volatile Executor executor;
+
+   private IdleTimeoutManager.Entry idleTimeoutEntry;
+
+   private volatile int idleTimeout;
+
+   // when the last bytes arrived, so a dead peer is found even if the transport didn't close itself
+   private volatile long lastInputTime = System.currentTimeMillis();
+
+   private final AtomicInteger pendingDeliveries = new AtomicInteger(0);
+
+   private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+   // senders holding acks from the current dispatch, only touched by the dispatching thread
+   private final List<AbstractProtonContextSender> ackingSenders = new ArrayList<>();
+
+   private final Object outputCondition = new Object();
+
+   // only notify outputCondition when there are senders streaming
+   private final AtomicInteger outputWaiters = new AtomicInteger(0);
+
+   // goes up every time the transport output was flushed, so waiters can't miss a flush that happened before they waited
+   private final AtomicLong outputVersion = new AtomicLong(0);
+
+   // one shot listeners for the next output, used by senders streaming on the executor
+   private final Queue<Runnable> outputListeners = new ConcurrentLinkedQueue<>();
+
+   private volatile boolean destroyed = false;
+
+   // the connection whose executor is running a task of ours on the current thread
+   private static final ThreadLocal<AbstractConnectionContext> runningTask = new ThreadLocal<>();
+
+   private final Runnable scheduledFlush = new Runnable()
+   {
+      public void run()
+      {
+         flushScheduled.set(false);
+         flush();
+      }
+   };
+
 
    public AbstractConnectionContext(AMQPConnectionCallback connectionCallback)
+   {
+      this(connectionCallback, new AMQPConnectionOptions());
+   }
+
+   public AbstractConnectionContext(AMQPConnectionCallback connectionCallback, AMQPConnectionOptions options)
    {
       this.connectionCallback = connectionCallback;
+      this.options = options;
       connectionCallback.setConnection(this);
+      handler.setMaxFrameSize(options.getMaxFrameSize());
+      handler.setChannelMax(options.getChannelMax());
       handler.addEventHandler(new LocalListener());
    }
 
@@ -57,19 +125,90 @@ public abstract class AbstractConnectionContext extends ProtonInitializable impl
    }
 
    @Override
-   public void inputBuffer(ByteBuf buffer)
+   public boolean inputBuffer(ByteBuf buffer)
    {
       if (DebugInfo.debug)
       {
          ByteUtil.debugFrame("Buffer Received ", buffer);
       }
 
-      handler.inputBuffer(buffer);
+      if (idleTimeout > 0)
+      {
+         lastInputTime = System.currentTimeMillis();
+      }
+
+      return handler.inputBuffer(buffer);
+   }
+
+   @Override
+   public boolean inputPaused()
+   {
+      return handler.inputPaused();
    }
 
    public void destroy()
    {
+      destroyed = true;
+      setIdleTimeout(0);
       connectionCallback.close();
+      // anyone waiting on the output will find the connection gone
+      outputFlushed();
+   }
+
+   public boolean isDestroyed()
+   {
+      return destroyed;
+   }
+
+   @Override
+   public synchronized void setIdleTimeout(int idleTimeout)
+   {
+      if (idleTimeoutEntry != null)
+      {
+         IdleTimeoutManager.getManager().unregister(idleTimeoutEntry);
+         idleTimeoutEntry = null;
+      }
+
+      handler.setIdleTimeout(idleTimeout);
+      this.idleTimeout = idleTimeout;
+      lastInputTime = System.currentTimeMillis();
+
+      if (idleTimeout > 0)
+      {
+         idleTimeoutEntry = IdleTimeoutManager.getManager().register(this, idleTimeout);
+      }
+   }
+
+   /**
+    * Called by the {@link IdleTimeoutManager} when this connection is due, on the connection's executor if it has one
+    * @return the next deadline, 0 if there is none, or -1 if the peer was dead and the connection is gone
+    */
+   public long tick(long now)
+   {
+      if (destroyed)
+      {
+         return -1;
+      }
+
+      long deadline = handler.tick(now);
+      flush();
+
+      int timeout = idleTimeout;
+      if (timeout > 0 && now - lastInputTime > timeout)
+      {
+         // nothing arrived for the whole idle timeout, not even the peer's keep alives
+         destroy();
+         return -1;
+      }
+
+      if (handler.capacity() < 0)
+      {
+         // the transport was closed by the idle timeout, the close frame was already flushed
+         destroy();
+         return -1;
+      }
+
+      return deadline;
    }
 
 
@@ -78,6 +217,11 @@ public abstract class AbstractConnectionContext extends ProtonInitializable impl
       return handler.getLock();
    }
 
+   public AMQPConnectionOptions getOptions()
+   {
+      return options;
+   }
+
    @Override
    public int capacity()
    {
@@ -90,11 +234,174 @@ public abstract class AbstractConnectionContext extends ProtonInitializable impl
       handler.outputDone(bytes);
    }
 
+   @Override
+   public void setZeroCopyOutput(boolean zeroCopy)
+   {
+      handler.setZeroCopyOutput(zeroCopy);
+   }
+
+   @Override
+   public void setBatchFlush(int deliveries, Executor executor)
+   {
+      this.flushBatchSize = deliveries;
+      this.flushExecutor = executor;
+   }
+
+   @Override
+   public void setExecutor(Executor executor)
+   {
+      this.executor = executor;
+   }
+
+   /**
+    * @return the executor this connection is pinned to, or null if broker threads are using the lock directly
+    */
+   public Executor getExecutor()
+   {
+      return executor;
+   }
+
+   /**
+    * Tasks we give to the connection's executor are wrapped by this, so {@link #isOutputThread()} can find them
+    */
+   Runnable executorTask(final Runnable task)
+   {
+      return new Runnable()
+      {
+         public void run()
+         {
+            AbstractConnectionContext previous = runningTask.get();
+            runningTask.set(AbstractConnectionContext.this);
+            try
+            {
+               task.run();
+            }
+            finally
+            {
+               runningTask.set(previous);
+            }
+         }
+      };
+   }
+
+   /**
+    * @return true if the calling thread is the one that would write the output, so it can't block waiting for it:
+    * it's dispatching the events, it's the event loop of the connection's executor, or it's running a task we gave to the executor
+    */
+   public boolean isOutputThread()
+   {
+      if (handler.isDispatchingThread())
+      {
+         return true;
+      }
+
+      Executor executor = this.executor;
+      if (executor == null)
+      {
+         return false;
+      }
+
+      if (executor instanceof EventExecutor && ((EventExecutor) executor).inEventLoop())
+      {
+         return true;
+      }
+
+      return runningTask.get() == this;
+   }
+
    public void flush()
    {
+      pendingDeliveries.set(0);
       handler.flush();
    }
 
+   /**
+    * The sender will have {@link AbstractProtonContextSender#flushAcks()} called once the current dispatch is done,
+    * before its output is written.
+    */
+   public void scheduleAcks(AbstractProtonContextSender sender)
+   {
+      ackingSenders.add(sender);
+   }
+
+   private void flushAcks()
+   {
+      for (int i = 0; i < ackingSenders.size(); i++)
+      {
+         try
+         {
+            ackingSenders.get(i).flushAcks();
+         }
+         catch (Exception e)
+         {
+            // TODO: logs
+            e.printStackTrace();
+         }
+      }
+      ackingSenders.clear();
+   }
+
+   /**
+    * @return a number that changes every time the output is flushed, to be given to {@link #awaitOutput(long)}
+    */
+   public long getOutputVersion()
+   {
+      return outputVersion.get();
+   }
+
+   /**
+    * It will wait until the transport produced more output after the version was taken, which means it took more bytes
+    * from the deliveries, or until the connection was destroyed.
+    * Used by senders streaming large messages, so they won't queue more than the transport can write.
+    */
+   public void awaitOutput(long version) throws InterruptedException
+   {
+      outputWaiters.incrementAndGet();
+      try
+      {
+         synchronized (outputCondition)
+         {
+            while (outputVersion.get() == version && !destroyed)
+            {
+               outputCondition.wait();
+            }
+         }
+      }
+      finally
+      {
+         outputWaiters.decrementAndGet();
+      }
+   }
+
+   /**
+    * The listener will be called once, on the next time the output is flushed or when the connection is destroyed.
+    * It runs on the connection's executor, or on the flushing thread if there is no executor.
+    */
+   public void onNextOutput(Runnable listener)
+   {
+      outputListeners.add(listener);
+   }
+
+   /**
+    * To be called by senders after a delivery was created.
+    * On batched mode this will only mark the connection dirty, so many deliveries will share the same
+    * transport processing and the same write.
+    */
+   public void scheduleFlush()
+   {
+      if (flushBatchSize <= 0 || pendingDeliveries.incrementAndGet() >= flushBatchSize)
+      {
+         flush();
+         return;
+      }
+
+      Executor executor = flushExecutor;
+      if (executor != null && flushScheduled.compareAndSet(false, true))
+      {
+         executor.execute(scheduledFlush);
+      }
+   }
+
    public void close()
    {
       handler.close();
@@ -106,6 +413,10 @@ public abstract class AbstractConnectionContext extends ProtonInitializable impl
       if (sessionExtension == null)
       {
          // how this is possible? Log a warn here
+         if (options.getSessionIncomingCapacity() > 0)
+         {
+            realSession.setIncomingCapacity(options.getSessionIncomingCapacity());
+         }
          sessionExtension = newSessionExtension(realSession);
          realSession.setContext(sessionExtension);
          sessions.put(realSession, sessionExtension);
@@ -138,18 +449,72 @@ public abstract class AbstractConnectionContext extends ProtonInitializable impl
       {
          connectionCallback.onTransport(bytes, AbstractConnectionContext.this);
       }
+
+      outputFlushed();
+   }
+
+   private void outputFlushed()
+   {
+      // the version goes up before reading outputWaiters, and the waiters count up before reading the version,
+      // so either we see the waiter or the waiter sees the new version
+      outputVersion.incrementAndGet();
+      if (outputWaiters.get() > 0)
+      {
+         synchronized (outputCondition)
+         {
+            outputCondition.notifyAll();
+         }
+      }
+
+      Runnable listener;
+      while ((listener = outputListeners.poll()) != null)
+      {
+         Executor executor = this.executor;
+         if (executor == null)
+         {
+            listener.run();
+         }
+         else
+         {
+            executor.execute(executorTask(listener));
+         }
+      }
    }
 
 
    // This listener will perform a bunch of things here
    class LocalListener extends DefaultEventHandler
    {
+      @Override
+      public Set<Event.Type> getInterests()
+      {
+         return EnumSet.of(Event.Type.TRANSPORT,
+                           Event.Type.CONNECTION_REMOTE_OPEN,
+                           Event.Type.CONNECTION_REMOTE_CLOSE,
+                           Event.Type.SESSION_OPEN,
+                           Event.Type.SESSION_REMOTE_OPEN,
+                           Event.Type.SESSION_REMOTE_CLOSE,
+                           Event.Type.LINK_REMOTE_OPEN,
+                           Event.Type.LINK_FLOW,
+                           Event.Type.LINK_REMOTE_CLOSE,
+                           Event.Type.LINK_REMOTE_DETACH,
+                           Event.Type.DELIVERY);
+      }
+
       @Override
       public void onTransport(Transport transport)
       {
+         // this is the end of a dispatch, so the settlements go out on the same write
+         flushAcks();
          flushBytes();
       }
 
+      @Override
+      public void onInputCapacity(Transport transport)
+      {
+         connectionCallback.onInputCapacity(AbstractConnectionContext.this);
+      }
+
       @Override
       public void onRemoteOpen(Connection connection) throws Exception
       {
@@ -13,6 +13,11 @@
 
 package org.proton.plug.context;
 
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
@@ -21,8 +26,12 @@ import org.apache.qpid.proton.engine.Sender;
 import org.apache.qpid.proton.message.ProtonJMessage;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.exceptions.HornetQAMQPException;
+import org.proton.plug.util.ChunkedBody;
 import org.proton.plug.util.CreditsSemaphore;
+import org.proton.plug.util.EncodeSizeEstimate;
+import org.proton.plug.util.FutureRunnable;
 import org.proton.plug.util.NettyWritable;
+import org.proton.plug.util.ProtonServerMessage;
 
 /**
  * A this is a wrapper around a HornetQ ServerConsumer for handling outgoing messages and incoming acks via a Proton Sender
@@ -38,6 +47,29 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
    protected final AMQPSessionCallback sessionSPI;
    protected CreditsSemaphore creditsSemaphore = new CreditsSemaphore(0);
 
+   private static final byte[] EMPTY_TAG = new byte[0];
+
+   // capped at the max frame size, a larger message grows its own buffer while encoding
+   private final EncodeSizeEstimate encodeSizeEstimate;
+
+   private final AtomicBoolean waitingCredits = new AtomicBoolean(false);
+
+   // Always taken before the connection lock
+   private final Object sendLock = new Object();
+
+   // A delivery being streamed is the current delivery of the link until it's complete,
+   // so no other delivery can be created on this sender meanwhile. Guarded by sendLock
+   private Stream activeStream;
+
+   // tasks from the connection's executor that arrived while streaming, they run in order once the stream is done.
+   // Guarded by sendLock
+   private final ArrayDeque<Runnable> deferred = new ArrayDeque<>();
+
+   // Data section: described type 0x00, smallulong 0x75 descriptor, vbin32
+   private static final byte[] DATA_SECTION = {0x00, 0x53, 0x75, (byte) 0xb0};
+
+   private static final long MAX_DATA_SIZE = 0xFFFFFFFFL;
+
 
    public AbstractProtonContextSender(AbstractConnectionContext connection, Sender sender, AbstractProtonSessionContext protonSession, AMQPSessionCallback server)
    {
@@ -45,11 +77,47 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
       this.sender = sender;
       this.protonSession = protonSession;
       this.sessionSPI = server;
+      this.encodeSizeEstimate = new EncodeSizeEstimate(connection.getOptions().getMaxFrameSize());
    }
 
    public void onFlow(int credits)
    {
       this.creditsSemaphore.setCredits(credits);
+      if (credits > 0 && waitingCredits.compareAndSet(true, false))
+      {
+         resumeDelivery();
+      }
+   }
+
+   /**
+    * Called on flow after {@link #tryAcquireCredit()} failed, so the caller can deliver again
+    */
+   protected void resumeDelivery()
+   {
+   }
+
+   /**
+    * It won't block the caller when there is no credit, instead {@link #resumeDelivery()} will be called
+    * once the peer flows more credits
+    * @return true if a credit was taken
+    */
+   protected boolean tryAcquireCredit()
+   {
+      if (creditsSemaphore.tryAcquire())
+      {
+         return true;
+      }
+
+      waitingCredits.set(true);
+
+      // the flow could have arrived before we set waitingCredits
+      if (creditsSemaphore.tryAcquire())
+      {
+         waitingCredits.set(false);
+         return true;
+      }
+
+      return false;
    }
 
    /*
@@ -82,6 +150,13 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
    * */
    public abstract void onMessage(Delivery delivery) throws HornetQAMQPException;
 
+   /**
+    * Called at the end of a dispatch when this sender was given to {@link AbstractConnectionContext#scheduleAcks(AbstractProtonContextSender)}
+    */
+   protected void flushAcks() throws HornetQAMQPException
+   {
+   }
+
    /*
    * check the state of the consumer, i.e. are there any more messages. only really needed for browsers?
    * */
@@ -96,11 +171,692 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
 
    protected int performSend(ProtonJMessage serverMessage, Object context)
    {
-      if (!creditsSemaphore.tryAcquire())
+      acquireCredits(1);
+
+      ByteBuf encoded;
+      try
+      {
+         encoded = encode(serverMessage);
+      }
+      catch (RuntimeException e)
       {
+         creditsSemaphore.release();
+         notSent(context);
+         throw e;
+      }
+
+      return sendBuffer(encoded, context);
+   }
+
+   /**
+    * Called for the context of every message given to a performSend that won't reach the peer,
+    * so whoever is waiting on it can give up. Its credit was given back already if the link is still usable.
+    */
+   protected void notSent(Object context)
+   {
+   }
+
+   /**
+    * Called on the connection's executor for a message that was handed to it, but the link was closed before it got sent.
+    * The caller already returned, so this is the only one to know about it.
+    */
+   protected void dropped(Object context)
+   {
+      notSent(context);
+   }
+
+   /**
+    * Same as {@link #performSend(ProtonJMessage, Object)} for when the credit was already taken
+    */
+   protected int sendMessage(ProtonJMessage serverMessage, final Object context)
+   {
+      return sendBuffer(encode(serverMessage), context);
+   }
+
+   /**
+    * It will send bytes already encoded as an AMQP message straight to the Sender, without going through the codec.
+    * The buffer is retained while in use, so the caller still owns it after this call.
+    * @return the number of bytes sent
+    */
+   protected int performSend(ByteBuf encoded, Object context)
+   {
+      acquireCredits(1);
+      return sendBuffer(heapBuffer(encoded), context);
+   }
+
+   /**
+    * The buffer is released after sent
+    */
+   private int sendBuffer(final ByteBuf nettyBuffer, final Object context)
+   {
+      int size = nettyBuffer.readableBytes();
+
+      Executor executor = connection.getExecutor();
+      if (executor == null)
+      {
+         try
+         {
+            sendEncoded(nettyBuffer, context);
+         }
+         finally
+         {
+            nettyBuffer.release();
+         }
+         connection.scheduleFlush();
+      }
+      else
+      {
+         // the encoding was done on the caller's thread, only the Proton work goes to the connection's executor
+         execute(executor, new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  if (closed)
+                  {
+                     dropped(context);
+                     return;
+                  }
+                  sendEncoded(nettyBuffer, context);
+               }
+               finally
+               {
+                  nettyBuffer.release();
+               }
+               connection.scheduleFlush();
+            }
+         });
+      }
+
+      return size;
+   }
+
+   /**
+    * It will send a delivery made of a header encoded for this delivery followed by sections shared with other
+    * deliveries, such as the ones from an {@link org.proton.plug.util.EncodedMessageCache}.
+    * The credit must have been taken already, and both buffers are released after sent.
+    * @return the number of bytes sent
+    */
+   protected int sendSections(final ByteBuf header, final ByteBuf sections, final Object context)
+   {
+      int size = header.readableBytes() + sections.readableBytes();
+
+      Executor executor = connection.getExecutor();
+      if (executor == null)
+      {
+         try
+         {
+            sendEncoded(header, sections, context);
+         }
+         finally
+         {
+            header.release();
+            sections.release();
+         }
+         connection.scheduleFlush();
+      }
+      else
+      {
+         execute(executor, new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  if (closed)
+                  {
+                     dropped(context);
+                     return;
+                  }
+                  sendEncoded(header, sections, context);
+               }
+               finally
+               {
+                  header.release();
+                  sections.release();
+               }
+               connection.scheduleFlush();
+            }
+         });
+      }
+
+      return size;
+   }
+
+   /**
+    * It will send a large message without holding its body in memory.
+    * The sections of the message are encoded first, then the body is read in chunks of about the max frame size
+    * and given to Proton as the transport writes the previous ones out, holding no more than a couple of chunks at a time.
+    * This blocks the caller until the whole message was given to the transport, and no other message can be sent on this
+    * link meanwhile.
+    * When the connection has an executor the chunks are read and sent from the executor, so this can't be called from it.
+    * It fails right away when called from a thread that would never see the output written: the one dispatching the
+    * connection's events, the executor's event loop or a task this library gave to the executor. A task of your own on
+    * a plain executor can't be told apart, don't call this from there.
+    *
+    * @param message the message without a body
+    * @param body the bytes of the body, sent as a single Data section
+    * @return the number of bytes sent
+    */
+   protected int performSend(ProtonJMessage message, ChunkedBody body, Object context) throws Exception
+   {
+      try
+      {
+         long bodySize = body.getSize();
+         if (bodySize > MAX_DATA_SIZE)
+         {
+            throw new IllegalArgumentException("A Data section can't have " + bodySize + " bytes");
+         }
+
+         if (connection.isOutputThread())
+         {
+            notSent(context);
+            throw new IllegalStateException("A large message can't be streamed from the thread writing the connection's output");
+         }
+
+         Executor executor = connection.getExecutor();
+
+         acquireCredits(1);
+
+         ByteBuf sections;
          try
          {
-            creditsSemaphore.acquire();
+            sections = encode(message);
+         }
+         catch (RuntimeException e)
+         {
+            creditsSemaphore.release();
+            notSent(context);
+            throw e;
+         }
+
+         long size = sections.readableBytes() + DATA_SECTION.length + 4 + bodySize;
+         try
+         {
+            Stream stream = new Stream(sections, body, context);
+            if (executor == null)
+            {
+               stream.drive();
+            }
+            else
+            {
+               stream.driveOn(executor);
+            }
+         }
+         catch (Exception e)
+         {
+            notSent(context);
+            throw e;
+         }
+         finally
+         {
+            sections.release();
+         }
+
+         connection.flush();
+         return (int) Math.min(Integer.MAX_VALUE, size);
+      }
+      finally
+      {
+         body.close();
+      }
+   }
+
+   /**
+    * Tasks for the connection's executor go through here, so they won't create deliveries in the middle of a stream.
+    */
+   private void execute(Executor executor, final Runnable task)
+   {
+      executor.execute(connection.executorTask(new Runnable()
+      {
+         public void run()
+         {
+            synchronized (sendLock)
+            {
+               if (activeStream != null)
+               {
+                  deferred.add(task);
+                  return;
+               }
+            }
+            task.run();
+         }
+      }));
+   }
+
+   /**
+    * Called on the executor once a stream is done. A deferred task may start another stream, and then the rest wait for it.
+    */
+   private void runDeferred()
+   {
+      while (true)
+      {
+         Runnable task;
+         synchronized (sendLock)
+         {
+            if (activeStream != null)
+            {
+               return;
+            }
+            task = deferred.poll();
+         }
+
+         if (task == null)
+         {
+            return;
+         }
+
+         try
+         {
+            task.run();
+         }
+         catch (Throwable e)
+         {
+            // TODO: logs
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Waits until no other stream is active on this sender. Not used on the executor, where tasks are deferred instead.
+    */
+   private void awaitStream() throws InterruptedException
+   {
+      while (activeStream != null)
+      {
+         sendLock.wait();
+      }
+   }
+
+   /**
+    * A large message being sent in chunks
+    */
+   private final class Stream implements Runnable
+   {
+      private final ByteBuf sections;
+      private final ChunkedBody body;
+      private final Object context;
+      private final boolean preSettle;
+      private final int chunkSize;
+      private final long bodySize;
+
+      private ByteBuf chunk;
+      private Delivery delivery;
+      private long sent;
+
+      // the executor mode uses these
+      private final FutureRunnable done = new FutureRunnable(1);
+      private volatile Exception failure;
+      private boolean listening;
+      private boolean finished;
+
+      Stream(ByteBuf sections, ChunkedBody body, Object context) throws Exception
+      {
+         this.sections = sections;
+         this.body = body;
+         this.context = context;
+         this.preSettle = sender.getRemoteSenderSettleMode() == SenderSettleMode.SETTLED;
+         this.chunkSize = Math.max(EncodeSizeEstimate.MIN_SIZE, connection.getOptions().getMaxFrameSize());
+         this.bodySize = body.getSize();
+      }
+
+      /**
+       * Streams the whole message on the caller's thread
+       */
+      void drive() throws Exception
+      {
+         synchronized (sendLock)
+         {
+            awaitStream();
+            activeStream = this;
+         }
+
+         try
+         {
+            start();
+            do
+            {
+               awaitCapacity();
+            }
+            while (sendChunk());
+         }
+         catch (Exception e)
+         {
+            abort();
+            throw e;
+         }
+         finally
+         {
+            release();
+            synchronized (sendLock)
+            {
+               activeStream = null;
+               sendLock.notifyAll();
+            }
+         }
+      }
+
+      /**
+       * Streams the message from the executor, sending more every time the output was flushed,
+       * while the caller waits for it to be done
+       */
+      void driveOn(Executor executor) throws Exception
+      {
+         execute(executor, this);
+
+         boolean interrupted = false;
+         while (true)
+         {
+            try
+            {
+               done.await();
+               break;
+            }
+            catch (InterruptedException e)
+            {
+               // the executor is still using the sections and the body
+               interrupted = true;
+            }
+         }
+
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+
+         if (failure != null)
+         {
+            throw failure;
+         }
+      }
+
+      // on the executor, when no other stream is active
+      public void run()
+      {
+         synchronized (sendLock)
+         {
+            activeStream = this;
+         }
+
+         try
+         {
+            start();
+         }
+         catch (Exception e)
+         {
+            finish(e);
+            return;
+         }
+
+         pump();
+      }
+
+      // on the executor
+      private void pump()
+      {
+         if (finished)
+         {
+            // a late output listener
+            return;
+         }
+
+         try
+         {
+            while (true)
+            {
+               if (!hasCapacity())
+               {
+                  if (!listening)
+                  {
+                     listening = true;
+                     connection.onNextOutput(new Runnable()
+                     {
+                        public void run()
+                        {
+                           listening = false;
+                           pump();
+                        }
+                     });
+                  }
+
+                  // the output could have been flushed before the listener was added
+                  if (!hasCapacity())
+                  {
+                     return;
+                  }
+               }
+
+               if (!sendChunk())
+               {
+                  finish(null);
+                  return;
+               }
+            }
+         }
+         catch (Exception e)
+         {
+            finish(e);
+         }
+      }
+
+      private void finish(Exception e)
+      {
+         finished = true;
+
+         if (e != null)
+         {
+            abort();
+         }
+         release();
+
+         synchronized (sendLock)
+         {
+            activeStream = null;
+         }
+
+         failure = e;
+         done.countDown();
+
+         runDeferred();
+      }
+
+      private void start()
+      {
+         byte[] tag = preSettle ? EMPTY_TAG : protonSession.getTag();
+
+         chunk = PooledByteBufAllocator.DEFAULT.heapBuffer(chunkSize, chunkSize);
+
+         synchronized (connection.getLock())
+         {
+            delivery = sender.delivery(tag, 0, tag.length);
+            delivery.setContext(context);
+
+            sender.send(sections.array(), sections.arrayOffset() + sections.readerIndex(), sections.readableBytes());
+
+            chunk.writeBytes(DATA_SECTION);
+            chunk.writeInt((int) bodySize);
+            sender.send(chunk.array(), chunk.arrayOffset(), chunk.readableBytes());
+         }
+      }
+
+      /**
+       * @return true if the transport took all but a chunk from the delivery
+       */
+      private boolean hasCapacity()
+      {
+         if (closed || connection.isDestroyed())
+         {
+            throw new IllegalStateException("The link was closed while streaming a message");
+         }
+
+         synchronized (connection.getLock())
+         {
+            return delivery.pending() <= chunkSize;
+         }
+      }
+
+      private void awaitCapacity() throws InterruptedException
+      {
+         while (true)
+         {
+            long version = connection.getOutputVersion();
+            if (hasCapacity())
+            {
+               return;
+            }
+            connection.awaitOutput(version);
+         }
+      }
+
+      /**
+       * @return false if the body was over, and then the delivery is complete
+       */
+      private boolean sendChunk() throws Exception
+      {
+         chunk.clear();
+         if (body.read(chunk) < 0)
+         {
+            if (sent != bodySize)
+            {
+               throw new IllegalStateException("The body ended at " + sent + " bytes, it should have " + bodySize);
+            }
+
+            synchronized (connection.getLock())
+            {
+               if (preSettle)
+               {
+                  delivery.settle();
+               }
+               else
+               {
+                  sender.advance();
+               }
+            }
+            connection.flush();
+            return false;
+         }
+
+         sent += chunk.readableBytes();
+         if (sent > bodySize)
+         {
+            throw new IllegalStateException("The body has more than " + bodySize + " bytes");
+         }
+
+         synchronized (connection.getLock())
+         {
+            sender.send(chunk.array(), chunk.arrayOffset(), chunk.readableBytes());
+         }
+         connection.flush();
+         return true;
+      }
+
+      private void abort()
+      {
+         if (delivery == null)
+         {
+            return;
+         }
+
+         // The delivery was left incomplete, and there's no way to abort it on this version of Proton
+         synchronized (connection.getLock())
+         {
+            sender.close();
+         }
+         connection.flush();
+      }
+
+      private void release()
+      {
+         if (chunk != null)
+         {
+            chunk.release();
+            chunk = null;
+         }
+      }
+   }
+
+   /**
+    * It will send the messages taking as many credits as available at once,
+    * creating the deliveries for those credits under a single lock and flushing once.
+    * @param messages
+    * @param contexts the context of each delivery, in the same order of the messages
+    * @return the number of bytes sent
+    */
+   protected int performSend(List<? extends ProtonJMessage> messages, final List<?> contexts)
+   {
+      int totalSize = 0;
+      int index = 0;
+      while (index < messages.size())
+      {
+         int credits = acquireCredits(messages.size() - index);
+
+         final ByteBuf[] buffers = new ByteBuf[credits];
+         try
+         {
+            for (int i = 0; i < credits; i++)
+            {
+               buffers[i] = encode(messages.get(index + i));
+               totalSize += buffers[i].readableBytes();
+            }
+         }
+         catch (RuntimeException e)
+         {
+            // nothing from this batch was sent yet, the ones before it were
+            release(buffers);
+            creditsSemaphore.release(credits);
+            for (int i = index; i < messages.size(); i++)
+            {
+               notSent(contexts.get(i));
+            }
+            throw e;
+         }
+
+         final int firstIndex = index;
+         Executor executor = connection.getExecutor();
+         if (executor == null)
+         {
+            sendEncoded(buffers, contexts, firstIndex);
+         }
+         else
+         {
+            execute(executor, new Runnable()
+            {
+               public void run()
+               {
+                  if (closed)
+                  {
+                     release(buffers);
+                     for (int i = 0; i < buffers.length; i++)
+                     {
+                        dropped(contexts.get(firstIndex + i));
+                     }
+                     return;
+                  }
+                  sendEncoded(buffers, contexts, firstIndex);
+               }
+            });
+         }
+
+         index += credits;
+      }
+
+      return totalSize;
+   }
+
+   /**
+    * It will block until at least one credit is available
+    * @return the number of credits taken, up to max
+    */
+   protected int acquireCredits(int max)
+   {
+      int credits = creditsSemaphore.tryAcquire(max);
+      if (credits == 0)
+      {
+         try
+         {
+            credits = creditsSemaphore.acquireUpTo(max);
          }
          catch (InterruptedException e)
          {
@@ -109,20 +865,118 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
             throw new IllegalStateException(e.getMessage(), e);
          }
       }
+      return credits;
+   }
 
-      //presettle means we can ack the message on the dealer side before we send it, i.e. for browsers
-      boolean preSettle = sender.getRemoteSenderSettleMode() == SenderSettleMode.SETTLED;
-
-      //we only need a tag if we are going to ack later
-      byte[] tag = preSettle ? new byte[0] : protonSession.getTag();
+   private ByteBuf encode(ProtonJMessage serverMessage)
+   {
+      if (serverMessage instanceof ProtonServerMessage)
+      {
+         // passthrough: the message wasn't changed since it was received, so its original bytes are sent as they are
+         ByteBuf raw = ((ProtonServerMessage) serverMessage).getRawMessage();
+         if (raw != null)
+         {
+            return raw;
+         }
+      }
 
-      ByteBuf nettyBuffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+      ByteBuf nettyBuffer = PooledByteBufAllocator.DEFAULT.heapBuffer(encodeSizeEstimate.get());
       try
       {
          serverMessage.encode(new NettyWritable(nettyBuffer));
+         encodeSizeEstimate.update(nettyBuffer.writerIndex());
+         return nettyBuffer;
+      }
+      catch (RuntimeException e)
+      {
+         nettyBuffer.release();
+         throw e;
+      }
+   }
+
+   /**
+    * Sender.send needs a byte[], so direct buffers are copied. Heap buffers are just retained.
+    */
+   private static ByteBuf heapBuffer(ByteBuf encoded)
+   {
+      if (encoded.hasArray())
+      {
+         return encoded.retain();
+      }
+
+      ByteBuf copy = PooledByteBufAllocator.DEFAULT.heapBuffer(encoded.readableBytes());
+      copy.writeBytes(encoded, encoded.readerIndex(), encoded.readableBytes());
+      return copy;
+   }
+
+   private void sendEncoded(ByteBuf[] buffers, List<?> contexts, int firstIndex)
+   {
+      try
+      {
+         synchronized (sendLock)
+         {
+            awaitStreamUninterruptibly();
+            synchronized (connection.getLock())
+            {
+               for (int i = 0; i < buffers.length; i++)
+               {
+                  sendEncoded(buffers[i], contexts.get(firstIndex + i));
+               }
+            }
+         }
+      }
+      finally
+      {
+         release(buffers);
+      }
+
+      connection.flush();
+   }
+
+   // tasks on the executor never get here while a stream is active, so this only waits on callers' threads
+   private void awaitStreamUninterruptibly()
+   {
+      try
+      {
+         awaitStream();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException(e.getMessage(), e);
+      }
+   }
+
+   private static void release(ByteBuf[] buffers)
+   {
+      for (ByteBuf buffer : buffers)
+      {
+         if (buffer != null)
+         {
+            buffer.release();
+         }
+      }
+   }
+
+   private void sendEncoded(ByteBuf nettyBuffer, Object context)
+   {
+      sendEncoded(nettyBuffer, null, context);
+   }
+
+   /**
+    * @param sections optional bytes sent on the same delivery right after the first buffer
+    */
+   private void sendEncoded(ByteBuf nettyBuffer, ByteBuf sections, Object context)
+   {
+      //presettle means we can ack the message on the dealer side before we send it, i.e. for browsers
+      boolean preSettle = sender.getRemoteSenderSettleMode() == SenderSettleMode.SETTLED;
 
-         int size = nettyBuffer.writerIndex();
+      //we only need a tag if we are going to ack later
+      byte[] tag = preSettle ? EMPTY_TAG : protonSession.getTag();
 
+      synchronized (sendLock)
+      {
+         awaitStreamUninterruptibly();
          synchronized (connection.getLock())
          {
             final Delivery delivery;
@@ -132,6 +986,11 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
             // this will avoid a copy.. patch provided by Norman using buffer.array()
             sender.send(nettyBuffer.array(), nettyBuffer.arrayOffset() + nettyBuffer.readerIndex(), nettyBuffer.readableBytes());
 
+            if (sections != null)
+            {
+               sender.send(sections.array(), sections.arrayOffset() + sections.readerIndex(), sections.readableBytes());
+            }
+
             if (preSettle)
             {
                delivery.settle();
@@ -141,14 +1000,6 @@ public abstract class AbstractProtonContextSender extends ProtonInitializable im
                sender.advance();
             }
          }
-
-         connection.flush();
-
-         return size;
-      }
-      finally
-      {
-         nettyBuffer.release();
       }
    }
 }
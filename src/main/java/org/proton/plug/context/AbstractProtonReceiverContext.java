@@ -16,6 +16,7 @@ package org.proton.plug.context;
 import org.apache.qpid.proton.engine.Receiver;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.exceptions.HornetQAMQPException;
+import org.proton.plug.util.ReceiveBuffer;
 
 /**
  * @author <a href="mailto:andy.taylor@jboss.org">Andy Taylor</a>
@@ -34,6 +35,9 @@ public abstract class AbstractProtonReceiverContext extends ProtonInitializable
 
    protected final AMQPSessionCallback sessionSPI;
 
+   // to read the deliveries that are consumed right away
+   protected final ReceiveBuffer receiveBuffer = new ReceiveBuffer();
+
    public AbstractProtonReceiverContext(AMQPSessionCallback sessionSPI, AbstractConnectionContext connection, AbstractProtonSessionContext protonSession, Receiver receiver)
    {
       this.connection = connection;
@@ -54,6 +58,29 @@ public abstract class AbstractProtonReceiverContext extends ProtonInitializable
    public void close() throws HornetQAMQPException
    {
       protonSession.removeReceiver(receiver);
+      synchronized (connection.getLock())
+      {
+         receiveBuffer.release();
+      }
+   }
+
+   /**
+    * Called by {@link org.proton.plug.AMQPSessionContext#updateCredits()}
+    */
+   public void updateCredits()
+   {
+   }
+
+   /**
+    * Called by {@link org.proton.plug.AMQPSessionContext#setMemoryPressure(boolean)}
+    */
+   public void setMemoryPressure(boolean memoryPressure)
+   {
+   }
+
+   public Receiver getReceiver()
+   {
+      return receiver;
    }
 
    public void flow(int credits)
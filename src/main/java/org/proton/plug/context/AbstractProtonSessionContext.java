@@ -13,6 +13,8 @@
 
 package org.proton.plug.context;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,6 +44,24 @@ public abstract class AbstractProtonSessionContext extends ProtonInitializable i
 
    private long currentTag = 0;
 
+   /**
+    * Tags are only created while there are more unsettled deliveries than ever before.
+    * The tags kept alive, in use or pooled, are capped by the outstanding window: the largest number of unsettled deliveries
+    * seen lately. It goes up at once and decays slowly as the tags are reused, so the pool is released after a burst.
+    * Everything here is guarded by tagPool
+    */
+   private final ArrayDeque<byte[]> tagPool = new ArrayDeque<>();
+
+   // tags given out and not replaced yet, the unsettled deliveries of this session
+   private int outstandingTags;
+
+   private int tagWindow;
+
+   // the largest outstanding since the window was last decayed, and the tags given out since then
+   private int roundPeak;
+
+   private int roundTags;
+
    protected Map<Receiver, AbstractProtonReceiverContext> receivers = new HashMap<Receiver, AbstractProtonReceiverContext>();
 
    protected Map<Sender, AbstractProtonContextSender> senders = new HashMap<Sender, AbstractProtonContextSender>();
@@ -102,13 +122,48 @@ public abstract class AbstractProtonSessionContext extends ProtonInitializable i
    @Override
    public byte[] getTag()
    {
-      return Long.toHexString(currentTag++).getBytes();
+      synchronized (tagPool)
+      {
+         byte[] tag = tagPool.poll();
+         if (tag == null)
+         {
+            tag = Long.toHexString(currentTag++).getBytes();
+         }
+
+         outstandingTags++;
+         roundPeak = Math.max(roundPeak, outstandingTags);
+         tagWindow = Math.max(tagWindow, outstandingTags);
+
+         // once a whole window was given out it decays 1/8 towards the largest outstanding of that round
+         if (++roundTags >= tagWindow)
+         {
+            tagWindow = Math.max(roundPeak, tagWindow - (tagWindow >> 3));
+            roundPeak = outstandingTags;
+            roundTags = 0;
+            while (outstandingTags + tagPool.size() > tagWindow && !tagPool.isEmpty())
+            {
+               tagPool.pollLast();
+            }
+         }
+         return tag;
+      }
    }
 
+   /**
+    * To be called after the delivery using the tag was settled, so it can be used by another delivery
+    * @param tag
+    */
    @Override
    public void replaceTag(byte[] tag)
    {
-      // TODO: do we need to reuse this?
+      synchronized (tagPool)
+      {
+         outstandingTags = Math.max(0, outstandingTags - 1);
+         if (outstandingTags + tagPool.size() < tagWindow)
+         {
+            tagPool.push(tag);
+         }
+      }
    }
 
    @Override
@@ -167,6 +222,24 @@ public abstract class AbstractProtonSessionContext extends ProtonInitializable i
       senders.remove(sender);
    }
 
+   @Override
+   public void updateCredits()
+   {
+      for (AbstractProtonReceiverContext receiver : new ArrayList<>(receivers.values()))
+      {
+         receiver.updateCredits();
+      }
+   }
+
+   @Override
+   public void setMemoryPressure(boolean memoryPressure)
+   {
+      for (AbstractProtonReceiverContext receiver : new ArrayList<>(receivers.values()))
+      {
+         receiver.setMemoryPressure(memoryPressure);
+      }
+   }
+
    @Override
    public void removeReceiver(Receiver receiver)
    {
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.context;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel shared by connections using idle timeouts.
+ * Each connection sits on the slot of its next deadline, so each tick only touches the connections due on it.
+ * When due the connection will tick its Transport, which sends the keep alive frames and closes dead peers.
+ * The ticks run on the connection's executor when it has one, or on a small pool otherwise, so a slow connection
+ * won't hold the timer.
+ *
+ * @author Clebert Suconic
+ */
+public class IdleTimeoutManager
+{
+   private static final IdleTimeoutManager theInstance = new IdleTimeoutManager(100, 512, null, true);
+
+   public static IdleTimeoutManager getManager()
+   {
+      return theInstance;
+   }
+
+   /**
+    * What the wheel ticks, usually an {@link AbstractConnectionContext}
+    */
+   public interface Tickable
+   {
+      /**
+       * @return the next deadline, 0 if there is none, or -1 if it's gone and shouldn't be scheduled again
+       */
+      long tick(long now);
+
+      /**
+       * @return where to tick, or null to use the manager's executor
+       */
+      Executor getExecutor();
+   }
+
+   public static final class Entry
+   {
+      private final Tickable target;
+
+      /**
+       * Used when the Transport has no deadline yet (before the remote open for instance)
+       */
+      private final long interval;
+
+      private long rounds;
+
+      private int slot = -1;
+
+      private Entry next;
+
+      private Entry prev;
+
+      private boolean cancelled;
+
+      private Entry(Tickable target, long interval)
+      {
+         this.target = target;
+         this.interval = interval;
+      }
+   }
+
+   private final long tickMillis;
+
+   private final Entry[] wheel;
+
+   private final boolean timer;
+
+   private long currentTick = 0;
+
+   private ScheduledExecutorService scheduler;
+
+   private Executor tickExecutor;
+
+   // if the tickExecutor was created here
+   private boolean ownExecutor;
+
+   /**
+    * @param tickExecutor where the entries without an executor of their own are ticked, if null a pool is created
+    * @param timer if false nothing advances the wheel, and {@link #advance(long)} has to be called by the user
+    */
+   public IdleTimeoutManager(long tickMillis, int slots, Executor tickExecutor, boolean timer)
+   {
+      this.tickMillis = tickMillis;
+      this.wheel = new Entry[slots];
+      this.tickExecutor = tickExecutor;
+      this.timer = timer;
+   }
+
+   /**
+    * @param connection
+    * @param idleTimeout the local idle timeout in milliseconds
+    * @return the entry you need to {@link #unregister(Entry)} when the connection is gone
+    */
+   public Entry register(Tickable connection, int idleTimeout)
+   {
+      return register(connection, idleTimeout, System.currentTimeMillis());
+   }
+
+   public synchronized Entry register(Tickable connection, int idleTimeout, long now)
+   {
+      Entry entry = new Entry(connection, Math.max(tickMillis, idleTimeout / 2));
+      start();
+      schedule(entry, now + entry.interval, now);
+      return entry;
+   }
+
+   public synchronized void unregister(Entry entry)
+   {
+      entry.cancelled = true;
+      unlink(entry);
+   }
+
+   /**
+    * @return true while the entry is waiting on the wheel, false while it's being ticked or after unregistered
+    */
+   public synchronized boolean isScheduled(Entry entry)
+   {
+      return entry.slot >= 0;
+   }
+
+   public synchronized void stop()
+   {
+      if (scheduler != null)
+      {
+         scheduler.shutdown();
+         scheduler = null;
+      }
+
+      if (ownExecutor)
+      {
+         ((ExecutorService) tickExecutor).shutdown();
+         tickExecutor = null;
+         ownExecutor = false;
+      }
+   }
+
+   private void start()
+   {
+      if (tickExecutor == null)
+      {
+         int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+         tickExecutor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("proton-plug-idle-tick"));
+         ownExecutor = true;
+      }
+
+      if (timer && scheduler == null)
+      {
+         scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("proton-plug-idle-timeout"));
+         scheduler.scheduleAtFixedRate(new Runnable()
+         {
+            public void run()
+            {
+               advance(System.currentTimeMillis());
+            }
+         }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Moves the wheel one tick, handing whatever is due to its executor.
+    * Called by the timer every tickMillis.
+    */
+   public void advance(final long now)
+   {
+      // local, as advance may be called by the user as well as by the timer
+      ArrayList<Entry> expired = null;
+      Executor defaultExecutor;
+      synchronized (this)
+      {
+         currentTick++;
+         Entry entry = wheel[(int) (currentTick % wheel.length)];
+         while (entry != null)
+         {
+            Entry next = entry.next;
+            if (entry.rounds > 0)
+            {
+               entry.rounds--;
+            }
+            else
+            {
+               unlink(entry);
+               if (expired == null)
+               {
+                  expired = new ArrayList<>();
+               }
+               expired.add(entry);
+            }
+            entry = next;
+         }
+         defaultExecutor = tickExecutor;
+      }
+
+      if (expired == null)
+      {
+         return;
+      }
+
+      // ticking happens outside of the wheel's lock as it will take the connection's lock
+      for (final Entry entry : expired)
+      {
+         Runnable task = new Runnable()
+         {
+            public void run()
+            {
+               tick(entry, now);
+            }
+         };
+
+         Executor executor = entry.target.getExecutor();
+         if (executor != null && execute(executor, task))
+         {
+            continue;
+         }
+
+         // the connection's executor is gone (shut down with its connection for instance), the pool will tick it
+         if (defaultExecutor != null && executor != defaultExecutor && execute(defaultExecutor, task))
+         {
+            continue;
+         }
+
+         // nowhere to tick it (the manager was stopped), it will be tried again on its next round.
+         // Never ticked here, a slow connection would hold the timer
+         synchronized (this)
+         {
+            if (!entry.cancelled && entry.slot < 0)
+            {
+               schedule(entry, now + entry.interval, now);
+            }
+         }
+      }
+   }
+
+   private static boolean execute(Executor executor, Runnable task)
+   {
+      try
+      {
+         executor.execute(task);
+         return true;
+      }
+      catch (RejectedExecutionException e)
+      {
+         return false;
+      }
+   }
+
+   private void tick(Entry entry, long now)
+   {
+      long deadline;
+      try
+      {
+         deadline = entry.target.tick(now);
+      }
+      catch (Throwable e)
+      {
+         // TODO: logs
+         e.printStackTrace();
+         deadline = 0;
+      }
+
+      if (deadline >= 0)
+      {
+         synchronized (this)
+         {
+            if (!entry.cancelled)
+            {
+               schedule(entry, deadline == 0 ? now + entry.interval : deadline, now);
+            }
+         }
+      }
+   }
+
+   private void schedule(Entry entry, long deadline, long now)
+   {
+      long ticks = Math.max(1, (deadline - now + tickMillis - 1) / tickMillis);
+      int slot = (int) ((currentTick + ticks) % wheel.length);
+      entry.rounds = (ticks - 1) / wheel.length;
+      entry.slot = slot;
+      entry.prev = null;
+      entry.next = wheel[slot];
+      if (entry.next != null)
+      {
+         entry.next.prev = entry;
+      }
+      wheel[slot] = entry;
+   }
+
+   private void unlink(Entry entry)
+   {
+      if (entry.slot < 0)
+      {
+         return;
+      }
+      if (entry.prev != null)
+      {
+         entry.prev.next = entry.next;
+      }
+      else
+      {
+         wheel[entry.slot] = entry.next;
+      }
+      if (entry.next != null)
+      {
+         entry.next.prev = entry.prev;
+      }
+      entry.slot = -1;
+      entry.next = null;
+      entry.prev = null;
+   }
+
+   private static class DaemonThreadFactory implements ThreadFactory
+   {
+      private final String name;
+
+      DaemonThreadFactory(String name)
+      {
+         this.name = name;
+      }
+
+      public Thread newThread(Runnable r)
+      {
+         Thread t = new Thread(r, name);
+         t.setDaemon(true);
+         return t;
+      }
+   }
+}
@@ -13,7 +13,13 @@
 
 package org.proton.plug.context;
 
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
 import org.apache.qpid.proton.engine.Sender;
+import org.proton.plug.selector.Selector;
+import org.proton.plug.util.ChunkedBody;
+import org.proton.plug.util.EncodedMessageCache;
 
 /**
  * @author Clebert Suconic
@@ -21,7 +27,61 @@ import org.apache.qpid.proton.engine.Sender;
 
 public interface ProtonPlugSender
 {
+   /**
+    * Returned by {@link #tryDeliverMessage(Object, int)} when there was no credit to send the message
+    */
+   int NO_CREDITS = -1;
+
    int deliverMessage(Object message, int deliveryCount) throws Exception;
 
+   /**
+    * Same as {@link #deliverMessage(Object, int)}, but the message is only encoded once for every consumer
+    * delivering it through the same cache. Only the header is encoded for each delivery.
+    * @param message the object given back on acks, as on deliverMessage
+    * @param messageKey identifies the message among consumers (the broker's message, while message may be a reference to it)
+    * @param cache
+    * @return the number of bytes sent
+    */
+   int deliverMessage(Object message, Object messageKey, int deliveryCount, EncodedMessageCache cache) throws Exception;
+
+   /**
+    * Delivers a large message streaming its body, so it doesn't have to be in memory.
+    * This will block until the whole message was given to the transport.
+    * @param message the message given to {@link org.proton.plug.AMQPSessionCallback#encodeMessage(Object, int)}, the encoded message should have no body
+    * @param body the body sent as a single Data section, it will be closed after sent
+    * @return the number of bytes sent
+    */
+   int deliverMessage(Object message, int deliveryCount, ChunkedBody body) throws Exception;
+
+   /**
+    * Passthrough delivery, for messages the broker kept encoded as they were received and never changed.
+    * The bytes are sent as they are, without going through the codec.
+    * @param message the object given back on acks
+    * @param encoded the encoded AMQP message, it is retained while in use so the caller still owns it
+    * @return the number of bytes sent
+    */
+   int deliverEncoded(Object message, ByteBuf encoded) throws Exception;
+
+   /**
+    * Same as {@link #deliverMessage(Object, int)} but it won't block the caller waiting for credits.
+    * When there is no credit it returns {@link #NO_CREDITS} right away and the message is not delivered,
+    * {@link org.proton.plug.AMQPSessionCallback#resumeDelivery(Object)} will be called once the peer flows more credits.
+    * @return the number of bytes sent or {@link #NO_CREDITS}
+    */
+   int tryDeliverMessage(Object message, int deliveryCount) throws Exception;
+
+   /**
+    * It will deliver the messages taking credits in bulk, creating the deliveries under a single lock
+    * @param messages
+    * @param deliveryCounts the delivery count of each message
+    * @return the number of bytes sent
+    */
+   int deliverMessages(List<?> messages, int[] deliveryCounts) throws Exception;
+
    Sender getSender();
+
+   /**
+    * @return the jms-selector of the consumer compiled, or null if it has no selector
+    */
+   Selector getSelector();
 }
@@ -13,7 +13,6 @@
 package org.proton.plug.context;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.PooledByteBufAllocator;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.AmqpValue;
@@ -28,9 +27,9 @@ import org.apache.qpid.proton.message.impl.MessageImpl;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.exceptions.HornetQAMQPException;
 import org.proton.plug.logger.HornetQAMQPProtocolMessageBundle;
+import org.proton.plug.util.ReceiveBuffer;
 
 import static org.proton.plug.util.DeliveryUtil.decodeMessageImpl;
-import static org.proton.plug.util.DeliveryUtil.readDelivery;
 
 /**
  * handles an amqp Coordinator to deal with transaction boundaries etc
@@ -40,6 +39,9 @@ public class ProtonTransactionHandler implements ProtonDeliveryHandler
 
    final AMQPSessionCallback sessionSPI;
 
+   // declares and discharges are small, the same buffer is used for all of them
+   private final ReceiveBuffer receiveBuffer = new ReceiveBuffer();
+
    public ProtonTransactionHandler(AMQPSessionCallback sessionSPI)
    {
       this.sessionSPI = sessionSPI;
@@ -48,19 +50,17 @@ public class ProtonTransactionHandler implements ProtonDeliveryHandler
    @Override
    public void onMessage(Delivery delivery) throws HornetQAMQPException
    {
-      ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
-
       final Receiver receiver;
       try
       {
          receiver = ((Receiver) delivery.getLink());
 
-         if (!delivery.isReadable())
+         if (!delivery.isReadable() || delivery.isPartial())
          {
             return;
          }
 
-         readDelivery(receiver, buffer);
+         ByteBuf buffer = receiveBuffer.read(receiver, delivery);
 
          receiver.advance();
 
@@ -115,10 +115,6 @@ public class ProtonTransactionHandler implements ProtonDeliveryHandler
          rejected.setError(condition);
          delivery.disposition(rejected);
       }
-      finally
-      {
-         buffer.release();
-      }
    }
 
    public void onFlow(int credits)
@@ -129,6 +125,6 @@ public class ProtonTransactionHandler implements ProtonDeliveryHandler
    @Override
    public void close() throws HornetQAMQPException
    {
-      //noop
+      receiveBuffer.release();
    }
 }
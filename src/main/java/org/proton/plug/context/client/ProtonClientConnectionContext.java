@@ -19,6 +19,7 @@ import org.proton.plug.AMQPClientConnectionContext;
 import org.proton.plug.AMQPClientSessionContext;
 import org.proton.plug.ClientSASL;
 import org.proton.plug.AMQPConnectionCallback;
+import org.proton.plug.AMQPConnectionOptions;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.context.AbstractConnectionContext;
 import org.proton.plug.context.AbstractProtonSessionContext;
@@ -37,6 +38,11 @@ public class ProtonClientConnectionContext extends AbstractConnectionContext imp
       super(connectionCallback);
    }
 
+   public ProtonClientConnectionContext(AMQPConnectionCallback connectionCallback, AMQPConnectionOptions options)
+   {
+      super(connectionCallback, options);
+   }
+
    // Maybe a client interface?
    public void clientOpen(ClientSASL sasl) throws Exception
    {
@@ -16,6 +16,7 @@ package org.proton.plug.context.client;
 import org.proton.plug.AMQPConnectionContext;
 import org.proton.plug.AMQPConnectionContextFactory;
 import org.proton.plug.AMQPConnectionCallback;
+import org.proton.plug.AMQPConnectionOptions;
 
 /**
  * @author Clebert Suconic
@@ -29,9 +30,19 @@ public class ProtonClientConnectionContextFactory extends AMQPConnectionContextF
       return theInstance;
    }
 
+   public ProtonClientConnectionContextFactory()
+   {
+      super();
+   }
+
+   public ProtonClientConnectionContextFactory(AMQPConnectionOptions options)
+   {
+      super(options);
+   }
+
    public AMQPConnectionContext createConnection(AMQPConnectionCallback connectionCallback)
    {
-      return new ProtonClientConnectionContext(connectionCallback);
+      return new ProtonClientConnectionContext(connectionCallback, options);
    }
 
 
@@ -13,6 +13,8 @@
 
 package org.proton.plug.context.client;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.qpid.amqp_1_0.type.messaging.Accepted;
@@ -26,6 +28,7 @@ import org.proton.plug.context.AbstractConnectionContext;
 import org.proton.plug.context.AbstractProtonContextSender;
 import org.proton.plug.context.AbstractProtonSessionContext;
 import org.proton.plug.exceptions.HornetQAMQPException;
+import org.proton.plug.util.ChunkedBody;
 import org.proton.plug.util.FutureRunnable;
 
 /**
@@ -64,6 +67,36 @@ public class ProtonClientContext extends AbstractProtonContextSender implements
       performSend(message, catchUpRunnable);
    }
 
+   public void send(List<? extends ProtonJMessage> messages)
+   {
+      if (sender.getSenderSettleMode() != SenderSettleMode.SETTLED)
+      {
+         for (int i = 0; i < messages.size(); i++)
+         {
+            catchUpRunnable.countUp();
+         }
+      }
+      performSend(messages, Collections.nCopies(messages.size(), catchUpRunnable));
+   }
+
+   @Override
+   protected void notSent(Object context)
+   {
+      // it was counted up before sending, sync can't wait for it
+      if (context == catchUpRunnable && sender.getSenderSettleMode() != SenderSettleMode.SETTLED)
+      {
+         catchUpRunnable.countDown();
+      }
+   }
+
+   public void send(ProtonJMessage message, ChunkedBody body) throws Exception
+   {
+      if (sender.getSenderSettleMode() != SenderSettleMode.SETTLED)
+      {
+         catchUpRunnable.countUp();
+      }
+      performSend(message, body, catchUpRunnable);
+   }
 
    public boolean sync(long timeout, TimeUnit unit)
    {
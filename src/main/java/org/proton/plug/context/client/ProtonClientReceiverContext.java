@@ -17,7 +17,6 @@ import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.PooledByteBufAllocator;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
 import org.apache.qpid.proton.engine.Delivery;
 import org.apache.qpid.proton.engine.Receiver;
@@ -30,7 +29,6 @@ import org.proton.plug.context.AbstractProtonReceiverContext;
 import org.proton.plug.context.AbstractProtonSessionContext;
 import org.proton.plug.exceptions.HornetQAMQPException;
 
-import static org.proton.plug.util.DeliveryUtil.readDelivery;
 import static org.proton.plug.util.DeliveryUtil.decodeMessageImpl;
 
 /**
@@ -56,26 +54,27 @@ public class ProtonClientReceiverContext extends AbstractProtonReceiverContext i
    * */
    public void onMessage(Delivery delivery) throws HornetQAMQPException
    {
-      ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
-      try
+      if (delivery.isPartial())
       {
-         synchronized (connection.getLock())
-         {
-            readDelivery(receiver, buffer);
-            MessageImpl clientMessage = decodeMessageImpl(buffer);
+         // we will be called again as the rest arrives
+         return;
+      }
 
-            // This second method could be better
-//            clientMessage.decode(buffer.nioBuffer());
+      synchronized (connection.getLock())
+      {
+         // decoding copies what it needs, so the buffer can be reused
+         ByteBuf buffer = receiveBuffer.read(receiver, delivery);
+         MessageImpl clientMessage = decodeMessageImpl(buffer);
 
-            receiver.advance();
-            delivery.disposition(Accepted.getInstance());
-            queues.add(clientMessage);
+         // This second method could be better
+//         clientMessage.decode(buffer.nioBuffer());
+
+         receiver.advance();
+         // the message is consumed once it's here, nothing else will be done with the delivery
+         delivery.disposition(Accepted.getInstance());
+         delivery.settle();
+         queues.add(clientMessage);
 
-         }
-      }
-      finally
-      {
-         buffer.release();
       }
    }
 
@@ -19,6 +19,7 @@ import org.apache.qpid.proton.engine.Receiver;
 import org.apache.qpid.proton.engine.Sender;
 import org.apache.qpid.proton.engine.Session;
 import org.proton.plug.AMQPConnectionCallback;
+import org.proton.plug.AMQPConnectionOptions;
 import org.proton.plug.AMQPServerConnectionContext;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.ServerSASL;
@@ -37,6 +38,11 @@ public class ProtonServerConnectionContext extends AbstractConnectionContext imp
       super(connectionSP);
    }
 
+   public ProtonServerConnectionContext(AMQPConnectionCallback connectionSP, AMQPConnectionOptions options)
+   {
+      super(connectionSP, options);
+   }
+
    public void createServerSASL(ServerSASL[] saslMechanisms)
    {
       handler.createServerSASL(saslMechanisms);
@@ -67,8 +73,8 @@ public class ProtonServerConnectionContext extends AbstractConnectionContext imp
          }
          else
          {
+            // the receiver gives the initial credits from its credit policy
             protonSession.addReceiver(receiver);
-            receiver.flow(100);
          }
       }
       else
@@ -15,6 +15,7 @@ package org.proton.plug.context.server;
 
 import org.proton.plug.AMQPConnectionContextFactory;
 import org.proton.plug.AMQPConnectionCallback;
+import org.proton.plug.AMQPConnectionOptions;
 import org.proton.plug.AMQPServerConnectionContext;
 
 /**
@@ -29,9 +30,19 @@ public class ProtonServerConnectionContextFactory extends AMQPConnectionContextF
       return theInstance;
    }
 
+   public ProtonServerConnectionContextFactory()
+   {
+      super();
+   }
+
+   public ProtonServerConnectionContextFactory(AMQPConnectionOptions options)
+   {
+      super(options);
+   }
+
    public AMQPServerConnectionContext createConnection(AMQPConnectionCallback connectionCallback)
    {
-      ProtonServerConnectionContext connection = new ProtonServerConnectionContext(connectionCallback);
+      ProtonServerConnectionContext connection = new ProtonServerConnectionContext(connectionCallback, options);
       return connection;
    }
 }
@@ -13,14 +13,22 @@
 
 package org.proton.plug.context.server;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
 import org.apache.qpid.proton.amqp.messaging.Rejected;
 import org.apache.qpid.proton.amqp.transport.ErrorCondition;
 import org.apache.qpid.proton.engine.Delivery;
 import org.apache.qpid.proton.engine.Receiver;
+import org.proton.plug.AMQPCreditPolicy;
+import org.proton.plug.AMQPSendCompletion;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.context.AbstractConnectionContext;
 import org.proton.plug.context.AbstractProtonReceiverContext;
@@ -28,6 +36,8 @@ import org.proton.plug.context.AbstractProtonSessionContext;
 import org.proton.plug.exceptions.HornetQAMQPException;
 import org.proton.plug.exceptions.HornetQAMQPInternalErrorException;
 import org.proton.plug.logger.HornetQAMQPProtocolMessageBundle;
+import org.proton.plug.util.AdaptiveCreditPolicy;
+import org.proton.plug.util.OrderedExecutor;
 
 import static org.proton.plug.util.DeliveryUtil.readDelivery;
 
@@ -38,11 +48,39 @@ import static org.proton.plug.util.DeliveryUtil.readDelivery;
 public class ProtonServerReceiverContext extends AbstractProtonReceiverContext
 {
 
-   private final int numberOfCredits = 100;
+   private AMQPCreditPolicy creditPolicy;
+
+   private final int streamingChunkSize;
+
+   private final boolean asyncServerSend;
+
+   // messages given to the asynchronous serverSend or to the linkExecutor and not completed yet
+   private final AtomicInteger pendingSends = new AtomicInteger(0);
+
+   // the delivery being streamed to the SPI, deliveries on a link arrive one at a time.
+   // Written with the lock held, by the dispatch or by the linkExecutor resuming a stream
+   private volatile Delivery streamingDelivery;
+
+   // the SPI failed on a chunk, the message was rejected
+   private boolean discardStreaming;
+
+   // serverSend runs here when the connection has a serverSendExecutor, keeping the order of the link
+   private final Executor linkExecutor;
+
+   // chunks of a large message given to the linkExecutor and not sent yet. We stop reading the delivery at this,
+   // so a slow serverSendChunk leaves the rest of the message on Proton, within the session window
+   private static final int MAX_CHUNKS_IN_FLIGHT = 2;
+
+   // the large message being streamed through the linkExecutor, guarded by the connection lock
+   private StreamState streamState;
 
    public ProtonServerReceiverContext(AMQPSessionCallback sessionSPI, AbstractConnectionContext connection, AbstractProtonSessionContext protonSession, Receiver receiver)
    {
       super(sessionSPI, connection, protonSession, receiver);
+      this.streamingChunkSize = connection.getOptions().getStreamingChunkSize();
+      this.asyncServerSend = connection.getOptions().isAsyncServerSend();
+      Executor serverSendExecutor = connection.getOptions().getServerSendExecutor();
+      this.linkExecutor = serverSendExecutor == null ? null : new OrderedExecutor(serverSendExecutor);
    }
 
    public void onFlow(int credits)
@@ -98,13 +136,60 @@ public class ProtonServerReceiverContext extends AbstractProtonReceiverContext
          }
       }
 
-      flow(numberOfCredits);
+      creditPolicy = sessionSPI.createCreditPolicy(target == null ? null : target.getAddress());
+      if (creditPolicy == null)
+      {
+         creditPolicy = new AdaptiveCreditPolicy();
+      }
+
+      flow(creditPolicy.getInitialCredits());
+   }
+
+   @Override
+   public void updateCredits()
+   {
+      synchronized (connection.getLock())
+      {
+         flowCredits(-1);
+      }
+   }
+
+   @Override
+   public void setMemoryPressure(boolean memoryPressure)
+   {
+      synchronized (connection.getLock())
+      {
+         if (creditPolicy == null)
+         {
+            // not initialised yet
+            return;
+         }
+         creditPolicy.setMemoryPressure(memoryPressure);
+         if (!memoryPressure)
+         {
+            flowCredits(-1);
+         }
+      }
+   }
+
+   /**
+    * To be called with the lock held
+    */
+   private void flowCredits(long sendNanos)
+   {
+      // messages not yet completed by the broker still count as credits in use
+      int credits = creditPolicy.getCredits(receiver.getRemoteCredit() + pendingSends.get(), sendNanos);
+      if (credits > 0)
+      {
+         flow(credits);
+      }
    }
 
    /*
    * called when Proton receives a message to be delivered via a Delivery.
    *
-   * This may be called more than once per deliver so we have to cache the buffer until we have received it all.
+   * This may be called more than once per deliver, Proton keeps the transfers until we have received it all.
+   * Unless the message is larger than streamingChunkSize, then it's given to the SPI in chunks as it arrives.
    *
    * */
    public void onMessage(Delivery delivery) throws HornetQAMQPException
@@ -120,39 +205,478 @@ public class ProtonServerReceiverContext extends AbstractProtonReceiverContext
             return;
          }
 
-         ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(10 * 1024);
-         try
+         if (streamingChunkSize > 0 && (delivery == streamingDelivery || delivery.pending() > streamingChunkSize))
          {
-            synchronized (connection.getLock())
+            streamMessage(receiver, delivery);
+            return;
+         }
+
+         if (delivery.isPartial())
+         {
+            // we will be called again as the rest arrives
+            return;
+         }
+
+         synchronized (connection.getLock())
+         {
+            if (linkExecutor != null)
             {
-               readDelivery(receiver, buffer);
+               // the buffer goes with the task, so it can't be the receiveBuffer
+               ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(delivery.pending());
+               try
+               {
+                  readDelivery(receiver, buffer);
+               }
+               catch (RuntimeException e)
+               {
+                  buffer.release();
+                  throw e;
+               }
 
                receiver.advance();
 
+               // only the Proton state needs the lock, the broker's work goes to the link's executor
+               pendingSends.incrementAndGet();
+               try
+               {
+                  linkExecutor.execute(new ServerSendTask(receiver, delivery, delivery.getMessageFormat(), buffer));
+               }
+               catch (RejectedExecutionException e)
+               {
+                  buffer.release();
+                  new SendCompletion(delivery).failed(e);
+               }
+               return;
+            }
+
+            // serverSend will be done with the bytes when it returns, unless it retains them
+            ByteBuf buffer = receiveBuffer.read(receiver, delivery);
+
+            receiver.advance();
+
+            long start = System.nanoTime();
+            if (asyncServerSend)
+            {
+               // it's settled on completion, until then it counts against the credits of the producer
+               pendingSends.incrementAndGet();
+               SendCompletion completion = new SendCompletion(delivery);
+               try
+               {
+                  sessionSPI.serverSend(receiver, delivery, address, delivery.getMessageFormat(), buffer, completion);
+               }
+               catch (Exception e)
+               {
+                  completion.failed(e);
+                  throw e;
+               }
+            }
+            else
+            {
                sessionSPI.serverSend(receiver, delivery, address, delivery.getMessageFormat(), buffer);
                delivery.disposition(Accepted.getInstance());
                delivery.settle();
+            }
+            long sendNanos = System.nanoTime() - start;
 
-               if (receiver.getRemoteCredit() < numberOfCredits / 2)
-               {
-                  flow(numberOfCredits);
-               }
+            flowCredits(sendNanos);
+         }
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+         if (delivery == streamingDelivery)
+         {
+            failStreaming((Receiver) delivery.getLink(), delivery, e);
+         }
+         else if (!delivery.isSettled())
+         {
+            delivery.disposition(createRejected(e));
+         }
+      }
+   }
+
+   /**
+    * The SPI failed on a chunk: the message is rejected, and it has to leave the receiver even if
+    * it had already arrived entirely, or the next delivery would be read from the wrong one
+    */
+   private void failStreaming(Receiver receiver, Delivery delivery, Exception e)
+   {
+      synchronized (connection.getLock())
+      {
+         if (!delivery.isSettled())
+         {
+            delivery.disposition(createRejected(e));
+         }
+         // the rest of it will be discarded as it arrives
+         discardStreaming = true;
+         discardMessage(receiver, delivery);
+      }
+   }
+
+   private static Rejected createRejected(Exception e)
+   {
+      Rejected rejected = new Rejected();
+      ErrorCondition condition = new ErrorCondition();
+      condition.setCondition(Symbol.valueOf("failed"));
+      condition.setDescription(e.getMessage());
+      rejected.setError(condition);
+      return rejected;
+   }
+
+   /**
+    * Settles a message that was given to the asynchronous serverSend or to the link's executor
+    */
+   private void complete(Delivery delivery, Exception error, long sendNanos)
+   {
+      pendingSends.decrementAndGet();
+      synchronized (connection.getLock())
+      {
+         if (error != null)
+         {
+            delivery.disposition(createRejected(error));
+         }
+         else if (!delivery.remotelySettled())
+         {
+            delivery.disposition(Accepted.getInstance());
+         }
+         delivery.settle();
+
+         flowCredits(sendNanos);
+      }
+
+      // completions usually come in bursts from the broker's store, they can share a flush
+      connection.scheduleFlush();
+   }
+
+   private final class SendCompletion implements AMQPSendCompletion
+   {
+      private final Delivery delivery;
+
+      private final AtomicBoolean completed = new AtomicBoolean(false);
+
+      SendCompletion(Delivery delivery)
+      {
+         this.delivery = delivery;
+      }
+
+      public void done()
+      {
+         complete(null, -1);
+      }
+
+      public void failed(Exception e)
+      {
+         complete(e, -1);
+      }
+
+      void complete(Exception error, long sendNanos)
+      {
+         if (completed.compareAndSet(false, true))
+         {
+            ProtonServerReceiverContext.this.complete(delivery, error, sendNanos);
+         }
+      }
+   }
+
+   /**
+    * serverSend for a message running on the link's executor, the buffer is released after it
+    */
+   private final class ServerSendTask implements Runnable
+   {
+      private final Receiver receiver;
+
+      private final Delivery delivery;
+
+      private final int messageFormat;
+
+      private final ByteBuf buffer;
+
+      ServerSendTask(Receiver receiver, Delivery delivery, int messageFormat, ByteBuf buffer)
+      {
+         this.receiver = receiver;
+         this.delivery = delivery;
+         this.messageFormat = messageFormat;
+         this.buffer = buffer;
+      }
+
+      public void run()
+      {
+         SendCompletion completion = new SendCompletion(delivery);
+         try
+         {
+            if (asyncServerSend)
+            {
+               sessionSPI.serverSend(receiver, delivery, address, messageFormat, buffer, completion);
+            }
+            else
+            {
+               long start = System.nanoTime();
+               sessionSPI.serverSend(receiver, delivery, address, messageFormat, buffer);
+               completion.complete(null, System.nanoTime() - start);
             }
          }
+         catch (Exception e)
+         {
+            e.printStackTrace();
+            completion.failed(e);
+         }
          finally
          {
             buffer.release();
          }
       }
-      catch (Exception e)
+   }
+
+   /**
+    * It will give what has arrived so far of a large message to the SPI, in chunks of up to streamingChunkSize,
+    * so we never hold more than a chunk of it (besides what Proton has buffered within the session window).
+    */
+   private void streamMessage(Receiver receiver, final Delivery delivery) throws Exception
+   {
+      synchronized (connection.getLock())
       {
-         e.printStackTrace();
-         Rejected rejected = new Rejected();
-         ErrorCondition condition = new ErrorCondition();
-         condition.setCondition(Symbol.valueOf("failed"));
-         condition.setDescription(e.getMessage());
-         rejected.setError(condition);
-         delivery.disposition(rejected);
+         streamingDelivery = delivery;
+
+         if (discardStreaming)
+         {
+            discardMessage(receiver, delivery);
+            return;
+         }
+
+         if (linkExecutor != null && (streamState == null || streamState.delivery != delivery))
+         {
+            streamState = new StreamState(receiver, delivery);
+         }
+         final StreamState state = streamState;
+
+         boolean lastSent = false;
+         while (delivery.pending() > 0)
+         {
+            if (linkExecutor != null && !state.canSend())
+            {
+               // the executor will call us again once it took a chunk
+               return;
+            }
+            ByteBuf chunk = PooledByteBufAllocator.DEFAULT.heapBuffer(Math.min(delivery.pending(), streamingChunkSize));
+            try
+            {
+               readDelivery(receiver, chunk);
+            }
+            catch (RuntimeException e)
+            {
+               chunk.release();
+               throw e;
+            }
+            lastSent = !delivery.isPartial() && delivery.pending() == 0;
+            sendChunk(state, receiver, delivery, chunk, lastSent);
+         }
+
+         if (delivery.isPartial())
+         {
+            return;
+         }
+
+         if (!lastSent)
+         {
+            // the last transfer had no payload
+            sendChunk(state, receiver, delivery, Unpooled.EMPTY_BUFFER, true);
+         }
+
+         streamingDelivery = null;
+         receiver.advance();
+
+         if (linkExecutor != null)
+         {
+            pendingSends.incrementAndGet();
+            try
+            {
+               linkExecutor.execute(new Runnable()
+               {
+                  public void run()
+                  {
+                     // all the chunks were given to the SPI by now, as they were before on the same executor
+                     new SendCompletion(delivery).complete(state.failure, -1);
+                  }
+               });
+            }
+            catch (RejectedExecutionException e)
+            {
+               new SendCompletion(delivery).failed(e);
+            }
+            return;
+         }
+
+         delivery.disposition(Accepted.getInstance());
+         delivery.settle();
+
+         // the time of a large message doesn't say much about the broker
+         flowCredits(-1);
+      }
+   }
+
+   /**
+    * It will release the chunk after given to the SPI
+    */
+   private void sendChunk(final StreamState state, final Receiver receiver, final Delivery delivery, final ByteBuf chunk, final boolean last) throws Exception
+   {
+      final int messageFormat = delivery.getMessageFormat();
+
+      if (linkExecutor == null)
+      {
+         try
+         {
+            sessionSPI.serverSendChunk(receiver, delivery, address, messageFormat, chunk, last);
+         }
+         finally
+         {
+            chunk.release();
+         }
+         return;
+      }
+
+      Runnable task = new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               // after a failure the rest of the message is dropped, and it will be rejected
+               if (state.failure == null)
+               {
+                  sessionSPI.serverSendChunk(receiver, delivery, address, messageFormat, chunk, last);
+               }
+            }
+            catch (Exception e)
+            {
+               e.printStackTrace();
+               state.failure = e;
+            }
+            finally
+            {
+               chunk.release();
+               state.chunkSent();
+            }
+         }
+      };
+
+      state.chunksInFlight.incrementAndGet();
+      try
+      {
+         linkExecutor.execute(task);
+      }
+      catch (RejectedExecutionException e)
+      {
+         // onMessage will reject the message and discard the rest of it
+         state.chunksInFlight.decrementAndGet();
+         chunk.release();
+         throw e;
+      }
+   }
+
+   /**
+    * A large message streamed through the linkExecutor. The failure belongs to the message,
+    * so a chunk still queued when it's rejected can't leak into the next one
+    */
+   private final class StreamState
+   {
+      final Receiver receiver;
+
+      final Delivery delivery;
+
+      final AtomicInteger chunksInFlight = new AtomicInteger(0);
+
+      // we stopped reading the delivery because of the chunks in flight
+      final AtomicBoolean paused = new AtomicBoolean(false);
+
+      // the SPI failed on a chunk, only touched by the linkExecutor
+      Exception failure;
+
+      StreamState(Receiver receiver, Delivery delivery)
+      {
+         this.receiver = receiver;
+         this.delivery = delivery;
+      }
+
+      /**
+       * To be called with the lock held, before reading the next chunk
+       */
+      boolean canSend()
+      {
+         if (chunksInFlight.get() < MAX_CHUNKS_IN_FLIGHT)
+         {
+            return true;
+         }
+         paused.set(true);
+         // a chunk could have been taken before we paused, then nobody would resume us
+         if (chunksInFlight.get() < MAX_CHUNKS_IN_FLIGHT)
+         {
+            paused.set(false);
+            return true;
+         }
+         return false;
+      }
+
+      /**
+       * Called on the linkExecutor after a chunk was given to the SPI
+       */
+      void chunkSent()
+      {
+         if (chunksInFlight.decrementAndGet() < MAX_CHUNKS_IN_FLIGHT && paused.compareAndSet(true, false))
+         {
+            // read what Proton kept of the delivery meanwhile
+            synchronized (connection.getLock())
+            {
+               if (streamState != this || streamingDelivery != delivery)
+               {
+                  // it was discarded meanwhile
+                  return;
+               }
+               try
+               {
+                  streamMessage(receiver, delivery);
+               }
+               catch (Exception e)
+               {
+                  e.printStackTrace();
+                  failStreaming(receiver, delivery, e);
+               }
+            }
+            connection.flush();
+         }
+      }
+   }
+
+   private void discardMessage(Receiver receiver, Delivery delivery)
+   {
+      if (receiver.current() != delivery)
+      {
+         // it was already advanced, nothing else to be read from it
+         streamingDelivery = null;
+         discardStreaming = false;
+         return;
+      }
+
+      ByteBuf chunk = PooledByteBufAllocator.DEFAULT.heapBuffer(streamingChunkSize);
+      try
+      {
+         while (delivery.pending() > 0)
+         {
+            chunk.clear();
+            readDelivery(receiver, chunk);
+         }
+      }
+      finally
+      {
+         chunk.release();
+      }
+
+      if (!delivery.isPartial())
+      {
+         streamingDelivery = null;
+         discardStreaming = false;
+         receiver.advance();
+         delivery.settle();
+         flowCredits(-1);
       }
    }
 
@@ -13,8 +13,11 @@
 
 package org.proton.plug.context.server;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import io.netty.buffer.ByteBuf;
 import org.apache.qpid.proton.amqp.DescribedType;
 import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.amqp.messaging.Accepted;
@@ -33,7 +36,10 @@ import org.proton.plug.context.AbstractProtonSessionContext;
 import org.proton.plug.exceptions.HornetQAMQPException;
 import org.proton.plug.exceptions.HornetQAMQPInternalErrorException;
 import org.proton.plug.logger.HornetQAMQPProtocolMessageBundle;
+import org.proton.plug.selector.Selector;
 import org.proton.plug.context.ProtonPlugSender;
+import org.proton.plug.util.ChunkedBody;
+import org.proton.plug.util.EncodedMessageCache;
 import org.apache.qpid.proton.amqp.messaging.Source;
 
 /**
@@ -48,6 +54,12 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
 
    private Object brokerConsumer;
 
+   private Selector selector;
+
+   // accepted during the current dispatch. Guarded by pendingAcks, as close may flush them from another thread
+   private final List<Object> pendingAcks = new ArrayList<>();
+   private final List<Delivery> pendingAckDeliveries = new ArrayList<>();
+
    public ProtonServerSenderContext(AbstractConnectionContext connection, Sender sender, AbstractProtonSessionContext protonSession, AMQPSessionCallback server)
    {
       super(connection, sender, protonSession, server);
@@ -58,6 +70,11 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
       return brokerConsumer;
    }
 
+   public Selector getSelector()
+   {
+      return selector;
+   }
+
    public void onFlow(int currentCredits)
    {
       super.onFlow(currentCredits);
@@ -105,6 +122,8 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
          if (value != null)
          {
             selector = value.getDescribed().toString();
+            // compiled once, the broker can evaluate it on every message with getSelector()
+            this.selector = Selector.compile(selector);
          }
       }
 
@@ -166,6 +185,7 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
    * */
    public void close() throws HornetQAMQPException
    {
+      flushAcks();
       super.close();
       try
       {
@@ -192,18 +212,24 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
       {
          if (remoteState instanceof Accepted)
          {
-            //we have to individual ack as we can't guarantee we will get the delivery updates (including acks) in order
-            // from dealer, a perf hit but a must
-            try
+            // we can't guarantee we will get the delivery updates (including acks) in order from dealer,
+            // so these are individual acks, but they go to the broker together at the end of the dispatch
+            synchronized (pendingAcks)
             {
-               sessionSPI.ack(brokerConsumer, message);
-            }
-            catch (Exception e)
-            {
-               throw HornetQAMQPProtocolMessageBundle.BUNDLE.errorAcknowledgingMessage(message.toString(), e.getMessage());
+               if (pendingAcks.isEmpty())
+               {
+                  connection.scheduleAcks(this);
+               }
+               pendingAcks.add(message);
+               pendingAckDeliveries.add(delivery);
             }
+            return;
          }
-         else if (remoteState instanceof Released)
+
+         // the acks received before this have to happen first
+         flushAcks();
+
+         if (remoteState instanceof Released)
          {
             try
             {
@@ -225,18 +251,18 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
                throw HornetQAMQPProtocolMessageBundle.BUNDLE.errorCancellingMessage(message.toString(), e.getMessage());
             }
          }
-         //todo add tag caching
-         if (!preSettle)
-         {
-            protonSession.replaceTag(delivery.getTag());
-         }
-
          synchronized (connection.getLock())
          {
             delivery.settle();
             sender.offer(1);
          }
 
+         // the tag can only be reused after the delivery was settled
+         if (!preSettle)
+         {
+            protonSession.replaceTag(delivery.getTag());
+         }
+
       }
       else
       {
@@ -244,6 +270,62 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
       }
    }
 
+   /**
+    * It will ack everything accepted during the last dispatch, settling the deliveries with a single lock.
+    * This is also called by close, from any thread, so the pending lists are guarded by pendingAcks.
+    */
+   @Override
+   protected void flushAcks() throws HornetQAMQPException
+   {
+      synchronized (pendingAcks)
+      {
+         if (pendingAcks.isEmpty())
+         {
+            return;
+         }
+
+         try
+         {
+            sessionSPI.ackBatch(brokerConsumer, pendingAcks);
+         }
+         catch (Exception e)
+         {
+            String messages = pendingAcks.toString();
+            // the client considers them acked anyway, they still have to be settled so the credits come back
+            settlePendingAcks();
+            throw HornetQAMQPProtocolMessageBundle.BUNDLE.errorAcknowledgingMessage(messages, e.getMessage());
+         }
+
+         settlePendingAcks();
+      }
+   }
+
+   private void settlePendingAcks()
+   {
+      boolean preSettle = sender.getRemoteSenderSettleMode() == SenderSettleMode.SETTLED;
+
+      synchronized (connection.getLock())
+      {
+         for (Delivery delivery : pendingAckDeliveries)
+         {
+            delivery.settle();
+         }
+         sender.offer(pendingAckDeliveries.size());
+      }
+
+      // the tag can only be reused after the delivery was settled
+      if (!preSettle)
+      {
+         for (Delivery delivery : pendingAckDeliveries)
+         {
+            protonSession.replaceTag(delivery.getTag());
+         }
+      }
+
+      pendingAcks.clear();
+      pendingAckDeliveries.clear();
+   }
+
    @Override
    public synchronized void checkState()
    {
@@ -279,5 +361,150 @@ public class ProtonServerSenderContext extends AbstractProtonContextSender imple
       return performSend(serverMessage, message);
    }
 
+   public int deliverMessage(Object message, Object messageKey, int deliveryCount, EncodedMessageCache cache) throws Exception
+   {
+      if (closed)
+      {
+         System.err.println("Message can't be delivered as it's closed");
+         return 0;
+      }
+
+      acquireCredits(1);
+
+      EncodedMessageCache.Entry entry = null;
+      ByteBuf header;
+      try
+      {
+         entry = cache.acquire(messageKey);
+         if (entry == null)
+         {
+            entry = cache.put(messageKey, sessionSPI.encodeMessage(message, deliveryCount));
+         }
+         header = entry.encodeHeader(deliveryCount);
+      }
+      catch (Throwable e)
+      {
+         if (entry != null)
+         {
+            entry.getSections().release();
+         }
+         creditsSemaphore.release();
+         e.printStackTrace();
+         throw new HornetQAMQPInternalErrorException(e.getMessage(), e);
+      }
+
+      return sendSections(header, entry.getSections(), message);
+   }
+
+   public int deliverMessage(Object message, int deliveryCount, ChunkedBody body) throws Exception
+   {
+      if (closed)
+      {
+         System.err.println("Message can't be delivered as it's closed");
+         body.close();
+         return 0;
+      }
+
+      ProtonJMessage serverMessage;
+      try
+      {
+         serverMessage = sessionSPI.encodeMessage(message, deliveryCount);
+      }
+      catch (Throwable e)
+      {
+         body.close();
+         e.printStackTrace();
+         throw new HornetQAMQPInternalErrorException(e.getMessage(), e);
+      }
+
+      return performSend(serverMessage, body, message);
+   }
+
+   public int deliverEncoded(Object message, ByteBuf encoded) throws Exception
+   {
+      if (closed)
+      {
+         System.err.println("Message can't be delivered as it's closed");
+         return 0;
+      }
+
+      return performSend(encoded, message);
+   }
+
+   public int tryDeliverMessage(Object message, int deliveryCount) throws Exception
+   {
+      if (closed)
+      {
+         System.err.println("Message can't be delivered as it's closed");
+         return 0;
+      }
+
+      if (!tryAcquireCredit())
+      {
+         return NO_CREDITS;
+      }
+
+      ProtonJMessage serverMessage;
+      try
+      {
+         serverMessage = sessionSPI.encodeMessage(message, deliveryCount);
+      }
+      catch (Throwable e)
+      {
+         // giving the credit back as nothing was sent
+         creditsSemaphore.release();
+         e.printStackTrace();
+         throw new HornetQAMQPInternalErrorException(e.getMessage(), e);
+      }
+
+      return sendMessage(serverMessage, message);
+   }
+
+   @Override
+   protected void dropped(Object message)
+   {
+      // the broker thinks it was delivered, it has to go back to the queue
+      try
+      {
+         sessionSPI.cancel(brokerConsumer, message, false);
+      }
+      catch (Exception e)
+      {
+         // TODO: logs
+         e.printStackTrace();
+      }
+   }
+
+   @Override
+   protected void resumeDelivery()
+   {
+      sessionSPI.resumeDelivery(brokerConsumer);
+   }
+
+   public int deliverMessages(List<?> messages, int[] deliveryCounts) throws Exception
+   {
+      if (closed)
+      {
+         System.err.println("Messages can't be delivered as it's closed");
+         return 0;
+      }
+
+      List<ProtonJMessage> serverMessages = new ArrayList<>(messages.size());
+      try
+      {
+         for (int i = 0; i < messages.size(); i++)
+         {
+            serverMessages.add(sessionSPI.encodeMessage(messages.get(i), deliveryCounts[i]));
+         }
+      }
+      catch (Throwable e)
+      {
+         e.printStackTrace();
+         throw new HornetQAMQPInternalErrorException(e.getMessage(), e);
+      }
+
+      return performSend(serverMessages, messages);
+   }
+
 
 }
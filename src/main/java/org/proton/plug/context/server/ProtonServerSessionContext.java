@@ -14,6 +14,7 @@
 package org.proton.plug.context.server;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.qpid.proton.amqp.transaction.Coordinator;
@@ -61,6 +62,37 @@ public class ProtonServerSessionContext extends AbstractProtonSessionContext
       return 0;
    }
 
+   /**
+    * Same as {@link #serverDelivery(Object, Object, int)} without blocking for credits
+    * @return the number of bytes sent or {@link org.proton.plug.context.ProtonPlugSender#NO_CREDITS}
+    */
+   public int tryServerDelivery(Object message, Object consumer, int deliveryCount) throws Exception
+   {
+      ProtonServerSenderContext protonSender = (ProtonServerSenderContext)serverSenders.get(consumer);
+      if (protonSender != null)
+      {
+         return protonSender.tryDeliverMessage(message, deliveryCount);
+      }
+      return 0;
+   }
+
+   /**
+    * Batched version of {@link #serverDelivery(Object, Object, int)}
+    * @param messages
+    * @param consumer
+    * @param deliveryCounts the delivery count of each message
+    * @return the number of bytes sent
+    */
+   public int serverDelivery(List<?> messages, Object consumer, int[] deliveryCounts) throws Exception
+   {
+      ProtonServerSenderContext protonSender = (ProtonServerSenderContext)serverSenders.get(consumer);
+      if (protonSender != null)
+      {
+         return protonSender.deliverMessages(messages, deliveryCounts);
+      }
+      return 0;
+   }
+
    public void addTransactionHandler(Coordinator coordinator, Receiver receiver)
    {
       ProtonTransactionHandler transactionHandler = new ProtonTransactionHandler(sessionSPI);
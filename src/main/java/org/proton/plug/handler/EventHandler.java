@@ -57,4 +57,9 @@ public interface EventHandler
    void onDelivery(Delivery delivery) throws Exception;
    void onTransport(Transport transport) throws Exception;
 
+   /**
+    * Called after an input was blocked, once the Transport consumed all the bytes it couldn't take before
+    */
+   void onInputCapacity(Transport transport) throws Exception;
+
 }
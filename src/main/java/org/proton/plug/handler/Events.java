@@ -13,7 +13,11 @@
 
 package org.proton.plug.handler;
 
+import org.apache.qpid.proton.engine.Connection;
+import org.apache.qpid.proton.engine.Delivery;
 import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Link;
+import org.apache.qpid.proton.engine.Session;
 import org.apache.qpid.proton.engine.Transport;
 
 /**
@@ -29,76 +33,124 @@ public final class Events
       handler.onTransport(transport);
    }
 
-   public static void dispatch(Event event, EventHandler handler) throws Exception {
-      switch (event.getType()) {
+   public static void dispatch(Event event, EventHandler handler) throws Exception
+   {
+      dispatch(event.getType(), getContext(event), handler);
+   }
+
+   /**
+    * The context of an event is the Connection, Session, Link, Delivery or Transport it refers to.
+    * We keep this instead of the Event as the Collector reuses its events after pop.
+    */
+   public static Object getContext(Event event)
+   {
+      switch (event.getType())
+      {
+         case CONNECTION_INIT:
+         case CONNECTION_OPEN:
+         case CONNECTION_REMOTE_OPEN:
+         case CONNECTION_CLOSE:
+         case CONNECTION_REMOTE_CLOSE:
+         case CONNECTION_FINAL:
+            return event.getConnection();
+         case SESSION_INIT:
+         case SESSION_OPEN:
+         case SESSION_REMOTE_OPEN:
+         case SESSION_CLOSE:
+         case SESSION_REMOTE_CLOSE:
+         case SESSION_FINAL:
+            return event.getSession();
+         case LINK_INIT:
+         case LINK_OPEN:
+         case LINK_REMOTE_OPEN:
+         case LINK_CLOSE:
+         case LINK_REMOTE_CLOSE:
+         case LINK_FLOW:
+         case LINK_FINAL:
+         case LINK_DETACH:
+         case LINK_REMOTE_DETACH:
+            return event.getLink();
+         case TRANSPORT:
+            return event.getTransport();
+         case DELIVERY:
+            return event.getDelivery();
+         default:
+            return null;
+      }
+   }
+
+   public static void dispatch(Event.Type type, Object context, EventHandler handler) throws Exception
+   {
+      switch (type)
+      {
          case CONNECTION_INIT:
-            handler.onInit(event.getConnection());
+            handler.onInit((Connection) context);
             break;
          case CONNECTION_OPEN:
-            handler.onOpen(event.getConnection());
+            handler.onOpen((Connection) context);
             break;
          case CONNECTION_REMOTE_OPEN:
-            handler.onRemoteOpen(event.getConnection());
+            handler.onRemoteOpen((Connection) context);
             break;
          case CONNECTION_CLOSE:
-            handler.onClose(event.getConnection());
+            handler.onClose((Connection) context);
             break;
          case CONNECTION_REMOTE_CLOSE:
-            handler.onRemoteClose(event.getConnection());
+            handler.onRemoteClose((Connection) context);
             break;
          case CONNECTION_FINAL:
-            handler.onFinal(event.getConnection());
+            handler.onFinal((Connection) context);
             break;
          case SESSION_INIT:
-            handler.onInit(event.getSession());
+            handler.onInit((Session) context);
             break;
          case SESSION_OPEN:
-            handler.onOpen(event.getSession());
+            handler.onOpen((Session) context);
             break;
          case SESSION_REMOTE_OPEN:
-            handler.onRemoteOpen(event.getSession());
+            handler.onRemoteOpen((Session) context);
             break;
          case SESSION_CLOSE:
-            handler.onClose(event.getSession());
+            handler.onClose((Session) context);
             break;
          case SESSION_REMOTE_CLOSE:
-            handler.onRemoteClose(event.getSession());
+            handler.onRemoteClose((Session) context);
             break;
          case SESSION_FINAL:
-            handler.onFinal(event.getSession());
+            handler.onFinal((Session) context);
             break;
          case LINK_INIT:
-            handler.onInit(event.getLink());
+            handler.onInit((Link) context);
             break;
          case LINK_OPEN:
-            handler.onOpen(event.getLink());
+            handler.onOpen((Link) context);
             break;
          case LINK_REMOTE_OPEN:
-            handler.onRemoteOpen(event.getLink());
+            handler.onRemoteOpen((Link) context);
             break;
          case LINK_CLOSE:
-            handler.onClose(event.getLink());
+            handler.onClose((Link) context);
             break;
          case LINK_REMOTE_CLOSE:
-            handler.onRemoteClose(event.getLink());
+            handler.onRemoteClose((Link) context);
             break;
          case LINK_FLOW:
-            handler.onFlow(event.getLink());
+            handler.onFlow((Link) context);
             break;
          case LINK_FINAL:
-            handler.onFinal(event.getLink());
+            handler.onFinal((Link) context);
             break;
          case LINK_DETACH:
-            handler.onDetach(event.getLink());
+            handler.onDetach((Link) context);
             break;
          case LINK_REMOTE_DETACH:
-            handler.onRemoteDetach(event.getLink());
+            handler.onRemoteDetach((Link) context);
             break;
          case TRANSPORT:
-            handler.onTransport(event.getTransport());
+            handler.onTransport((Transport) context);
             break;
          case DELIVERY:
-            handler.onDelivery(event.getDelivery());
+            handler.onDelivery((Delivery) context);
             break;
       }
    }
@@ -73,9 +73,25 @@ public interface ProtonHandler
    /**
     * The input on the Handler.
     * Notice that buffer will be positioned up to where we needed
+    * When the Transport has no capacity for all the bytes the handler will hold the remaining ones and return false,
+    * you should then stop reading and call {@link #inputPaused()}
     * @param buffer
+    * @return false if the input is blocked
     */
-   void inputBuffer(ByteBuf buffer);
+   boolean inputBuffer(ByteBuf buffer);
+
+   /**
+    * To be called once you stopped reading after {@link #inputBuffer(ByteBuf)} returned false.
+    * The bytes may have been consumed by a flush on another thread before you stopped,
+    * so {@link EventHandler#onInputCapacity(Transport)} is only called after this returned true.
+    * @return true if you should stay stopped until onInputCapacity, false if you should start reading again right away
+    */
+   boolean inputPaused();
+
+   /**
+    * @return true while the handler is holding bytes the Transport had no capacity for
+    */
+   boolean isInputBlocked();
 
    /**
     * To be used at your discretion to verify if the client was active since you last checked
@@ -103,6 +119,43 @@ public interface ProtonHandler
     */
    ByteBuf outputBuffer();
 
+   /**
+    * When enabled {@link #outputBuffer()} will return a read only view over the pending bytes of the Transport
+    * instead of copying them into a pooled buffer.
+    * The view is only valid until {@link #outputDone(int)} is called with its size, and a new view is only
+    * handed out after that, so you must only call outputDone after the bytes were actually written.
+    * @param zeroCopy
+    */
+   void setZeroCopyOutput(boolean zeroCopy);
+
+   boolean isZeroCopyOutput();
+
+   /**
+    * The largest frame accepted from the peer, sent on the open frame
+    * @param maxFrameSize in bytes
+    */
+   void setMaxFrameSize(int maxFrameSize);
+
+   /**
+    * The highest channel (session) number accepted from the peer, sent on the open frame
+    * @param channelMax
+    */
+   void setChannelMax(int channelMax);
+
+   /**
+    * The local idle timeout, sent to the peer on the open frame
+    * @param idleTimeout in milliseconds
+    */
+   void setIdleTimeout(int idleTimeout);
+
+   /**
+    * It will send empty frames when the peer's idle timeout requires and close the transport
+    * when nothing was received during the local idle timeout
+    * @param now current time in milliseconds
+    * @return the next time tick should be called, 0 if there is no deadline
+    */
+   long tick(long now);
+
    /**
     * It will process the transport and cause events to be called
     */
@@ -113,6 +166,12 @@ public interface ProtonHandler
     */
    void close();
 
+   /**
+    * @return true if the calling thread is dispatching the events of this handler. A flush from it won't
+    * process any more events or output until the dispatch returns
+    */
+   boolean isDispatchingThread();
+
 
    /**
     * Get the object used to lock transport, connection and events operations
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.handler;
+
+import java.util.Set;
+
+import org.apache.qpid.proton.engine.Event;
+
+/**
+ * An EventHandler that is only called for the event types it's interested on.
+ * A plain {@link EventHandler} is called for every event.
+ * @author Clebert Suconic
+ */
+public interface SelectiveEventHandler extends EventHandler
+{
+   /**
+    * The event types this handler should be called for. Any other event will skip this handler.
+    * This is only read when the handler is added.
+    * {@link EventHandler#onTransport(org.apache.qpid.proton.engine.Transport)} is always called, regardless of the interests.
+    */
+   Set<Event.Type> getInterests();
+}
@@ -13,20 +13,33 @@
 
 package org.proton.plug.handler.impl;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import org.apache.qpid.proton.engine.Connection;
 import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Event;
 import org.apache.qpid.proton.engine.Link;
 import org.apache.qpid.proton.engine.Session;
 import org.apache.qpid.proton.engine.Transport;
-import org.proton.plug.handler.EventHandler;
+import org.proton.plug.handler.SelectiveEventHandler;
 
 /**
  *
  * This is useful for cases where you only want to implement a few methods
  * @author Clebert Suconic
  */
-public class DefaultEventHandler implements EventHandler
+public class DefaultEventHandler implements SelectiveEventHandler
 {
+   /**
+    * Override this with the events you actually implement
+    */
+   @Override
+   public Set<Event.Type> getInterests()
+   {
+      return EnumSet.allOf(Event.Type.class);
+   }
+
    @Override
    public void onInit(Connection connection) throws Exception
    {
@@ -164,4 +177,10 @@ public class DefaultEventHandler implements EventHandler
    {
 
    }
+
+   @Override
+   public void onInputCapacity(Transport transport) throws Exception
+   {
+
+   }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.handler.impl;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.qpid.proton.engine.Event;
+import org.proton.plug.handler.EventHandler;
+import org.proton.plug.handler.SelectiveEventHandler;
+
+/**
+ * It keeps the handlers interested on each event type,
+ * so the dispatch won't call handlers that would do nothing for the event.
+ * @author Clebert Suconic
+ */
+public final class DispatchTable
+{
+   private static final Event.Type[] TYPES = Event.Type.values();
+
+   private static final Set<Event.Type> ALL_TYPES = EnumSet.allOf(Event.Type.class);
+
+   private EventHandler[] handlers = new EventHandler[0];
+
+   private final EventHandler[][] handlersByType = new EventHandler[TYPES.length][];
+
+   public DispatchTable()
+   {
+      for (int i = 0; i < handlersByType.length; i++)
+      {
+         handlersByType[i] = handlers;
+      }
+   }
+
+   public void add(EventHandler handler)
+   {
+      handlers = append(handlers, handler);
+      // plain handlers are called for every event
+      Iterable<Event.Type> interests = handler instanceof SelectiveEventHandler ? ((SelectiveEventHandler) handler).getInterests() : ALL_TYPES;
+      for (Event.Type type : interests)
+      {
+         handlersByType[type.ordinal()] = append(handlersByType[type.ordinal()], handler);
+      }
+   }
+
+   /**
+    * @return every handler, regardless of its interests
+    */
+   public EventHandler[] getHandlers()
+   {
+      return handlers;
+   }
+
+   public EventHandler[] getHandlers(Event.Type type)
+   {
+      return handlersByType[type.ordinal()];
+   }
+
+   private static EventHandler[] append(EventHandler[] array, EventHandler handler)
+   {
+      EventHandler[] newArray = Arrays.copyOf(array, array.length + 1);
+      newArray[array.length] = handler;
+      return newArray;
+   }
+}
@@ -14,12 +14,13 @@
 package org.proton.plug.handler.impl;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import org.apache.qpid.proton.Proton;
 import org.apache.qpid.proton.amqp.transport.ErrorCondition;
 import org.apache.qpid.proton.engine.Collector;
@@ -48,7 +49,15 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
 
    private final Collector collector = Proton.collector();
 
-   private ArrayList<EventHandler> handlers = new ArrayList<>();
+   private final DispatchTable handlers = new DispatchTable();
+
+   /**
+    * Events drained from the collector, reused between dispatches.
+    * We keep the type and the context as the collector will reuse the Event after pop
+    */
+   private Event.Type[] eventTypes = new Event.Type[16];
+
+   private Object[] eventContexts = new Object[16];
 
    private Sasl serverSasl;
 
@@ -67,10 +76,27 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
     */
    private boolean dispatching = false;
 
+   private volatile Thread dispatchThread;
+
    protected volatile boolean dataReceived;
 
    private int offset = 0;
 
+   /**
+    * @see ProtonHandler#setZeroCopyOutput(boolean)
+    */
+   private boolean zeroCopyOutput = false;
+
+   /**
+    * Bytes the Transport had no capacity for, waiting to be pushed
+    */
+   private ByteBuf pendingInput;
+
+   private boolean resuming = false;
+
+   // the reader confirmed it stopped reading, so it has to be told when to read again
+   private boolean inputPaused = false;
+
    public ProtonHandlerImpl()
    {
       this.creationTime = System.currentTimeMillis();
@@ -135,38 +161,162 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
    }
 
    @Override
-   public void inputBuffer(ByteBuf buffer)
+   public boolean inputBuffer(ByteBuf buffer)
    {
       dataReceived = true;
       synchronized (lock)
       {
-         while (buffer.readableBytes() > 0)
+         // the flushes while pushing can't resume the input, we are the reader
+         boolean wasResuming = resuming;
+         resuming = true;
+         try
          {
-            int capacity = transport.capacity();
-            if (capacity > 0)
-            {
-               ByteBuffer tail = transport.tail();
-               int min = Math.min(capacity, buffer.readableBytes());
-               tail.limit(min);
-               buffer.readBytes(tail);
-               flush();
-            }
-            else
+            if (pendingInput != null)
             {
-               if (capacity == 0)
-               {
-                  System.out.println("abandoning: " + buffer.readableBytes());
-               }
-               else
+               // We are already blocked, these bytes have to wait behind the ones we are holding
+               pendingInput.writeBytes(buffer);
+               pushBytes(pendingInput);
+               if (pendingInput.isReadable())
                {
-                  System.out.println("transport closed, discarding: " + buffer.readableBytes() + " capacity = " + transport.capacity());
+                  return false;
                }
-               break;
+               pendingInput.release();
+               pendingInput = null;
+               inputPaused = false;
+               return true;
+            }
+
+            pushBytes(buffer);
+
+            if (buffer.isReadable())
+            {
+               pendingInput = PooledByteBufAllocator.DEFAULT.heapBuffer(buffer.readableBytes());
+               pendingInput.writeBytes(buffer);
+               inputPaused = false;
+               return false;
+            }
+
+            return true;
+         }
+         finally
+         {
+            resuming = wasResuming;
+         }
+      }
+   }
+
+   @Override
+   public boolean inputPaused()
+   {
+      synchronized (lock)
+      {
+         if (pendingInput == null)
+         {
+            // it was consumed before the reader stopped, nobody will call onInputCapacity
+            return false;
+         }
+         inputPaused = true;
+         return true;
+      }
+   }
+
+   /**
+    * How many bytes the Transport can take now
+    */
+   protected int inputCapacity()
+   {
+      return transport.capacity();
+   }
+
+   /**
+    * It will push as many bytes as the Transport can take.
+    * Anything left on the buffer is what the Transport had no capacity for.
+    */
+   private void pushBytes(ByteBuf buffer)
+   {
+      while (buffer.readableBytes() > 0)
+      {
+         int capacity = inputCapacity();
+         if (capacity > 0)
+         {
+            ByteBuffer tail = transport.tail();
+            int min = Math.min(capacity, buffer.readableBytes());
+            tail.limit(min);
+            buffer.readBytes(tail);
+            flush();
+         }
+         else if (capacity == 0)
+         {
+            break;
+         }
+         else
+         {
+            System.out.println("transport closed, discarding: " + buffer.readableBytes() + " capacity = " + transport.capacity());
+            buffer.skipBytes(buffer.readableBytes());
+         }
+      }
+   }
+
+   /**
+    * It will push the bytes we were holding once the Transport has capacity again,
+    * and it will let the handlers know they can resume reading when everything was consumed.
+    */
+   private void resumeInput()
+   {
+      synchronized (lock)
+      {
+         if (pendingInput == null || resuming || inputCapacity() == 0)
+         {
+            return;
+         }
+
+         resuming = true;
+         try
+         {
+            pushBytes(pendingInput);
+            if (pendingInput.isReadable())
+            {
+               return;
             }
+            pendingInput.release();
+            pendingInput = null;
+         }
+         finally
+         {
+            resuming = false;
+         }
+
+         if (!inputPaused)
+         {
+            // the reader hasn't stopped yet, inputPaused will tell it to keep reading
+            return;
+         }
+         inputPaused = false;
+      }
+
+      for (EventHandler h : handlers.getHandlers())
+      {
+         try
+         {
+            h.onInputCapacity(transport);
+         }
+         catch (Exception e)
+         {
+            // TODO: logs
+            e.printStackTrace();
          }
       }
    }
 
+   @Override
+   public boolean isInputBlocked()
+   {
+      synchronized (lock)
+      {
+         return pendingInput != null;
+      }
+   }
+
 
    @Override
    public boolean checkDataReceived()
@@ -227,6 +377,11 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
             return null;
          }
 
+         if (zeroCopyOutput)
+         {
+            return outputView(size);
+         }
+
          // For returning PooledBytes
          ByteBuf buffer = PooledByteBufAllocator.DEFAULT.buffer(size);
          ByteBuffer head = transport.head();
@@ -237,6 +392,80 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
       }
    }
 
+   /**
+    * Pop on the Transport will compact its output buffer,
+    * so we can't give away a second view while the first one still points to the head.
+    * outputDone will call flush and that will give away the next view.
+    */
+   private ByteBuf outputView(int size)
+   {
+      if (offset > 0)
+      {
+         return null;
+      }
+
+      ByteBuffer head = transport.head().duplicate();
+      head.position(0);
+      head.limit(size);
+      offset += size;
+      return Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(head));
+   }
+
+   @Override
+   public void setZeroCopyOutput(boolean zeroCopy)
+   {
+      synchronized (lock)
+      {
+         if (offset > 0)
+         {
+            throw new IllegalStateException("Output mode can't be changed while there are pending bytes on the output");
+         }
+         this.zeroCopyOutput = zeroCopy;
+      }
+   }
+
+   @Override
+   public boolean isZeroCopyOutput()
+   {
+      return zeroCopyOutput;
+   }
+
+   @Override
+   public void setMaxFrameSize(int maxFrameSize)
+   {
+      synchronized (lock)
+      {
+         transport.setMaxFrameSize(maxFrameSize);
+      }
+   }
+
+   @Override
+   public void setChannelMax(int channelMax)
+   {
+      synchronized (lock)
+      {
+         transport.setChannelMax(channelMax);
+      }
+   }
+
+   @Override
+   public void setIdleTimeout(int idleTimeout)
+   {
+      synchronized (lock)
+      {
+         transport.setIdleTimeout(idleTimeout);
+      }
+   }
+
+   @Override
+   public long tick(long now)
+   {
+      synchronized (lock)
+      {
+         return transport.tick(now);
+      }
+   }
+
    public void createClientSasl(ClientSASL clientSASL)
    {
       if (clientSASL != null)
@@ -263,7 +492,7 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
          }
 
          dispatching = true;
-
+         dispatchThread = Thread.currentThread();
       }
 
       try
@@ -272,8 +501,17 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
       }
       finally
       {
+         dispatchThread = null;
          dispatching = false;
       }
+
+      resumeInput();
+   }
+
+   @Override
+   public boolean isDispatchingThread()
+   {
+      return dispatchThread == Thread.currentThread();
    }
 
    @Override
@@ -323,53 +561,71 @@ public class ProtonHandlerImpl extends ProtonInitializable implements ProtonHand
       }
    }
 
-   private Event popEvent()
+   /**
+    * It will drain every pending event from the collector with a single lock
+    * @return the number of events placed on eventTypes and eventContexts
+    */
+   private int drainEvents()
    {
       synchronized (lock)
       {
-         Event ev = collector.peek();
-         if (ev != null)
+         int count = 0;
+         Event ev;
+         while ((ev = collector.peek()) != null)
          {
+            if (count == eventTypes.length)
+            {
+               eventTypes = Arrays.copyOf(eventTypes, count * 2);
+               eventContexts = Arrays.copyOf(eventContexts, count * 2);
+            }
+            eventTypes[count] = ev.getType();
+            eventContexts[count] = Events.getContext(ev);
+            count++;
             // pop will invalidate the event
-            // for that reason we make a new one
-            // Events are reused inside the collector, so we need to make a new one here
-            ev = ev.copy();
             collector.pop();
          }
-         return ev;
+         return count;
       }
    }
 
 
    private void dispatch()
    {
-      Event ev;
+      int count;
       // We don't hold a lock on the entire event processing
       // because we could have a distributed deadlock
       // while processing events (for instance onTransport)
       // while a client is also trying to write here
-      while ((ev = popEvent()) != null)
+      while ((count = drainEvents()) > 0)
       {
-         for (EventHandler h : handlers)
+         for (int i = 0; i < count; i++)
          {
-            if (DebugInfo.debug)
-            {
-               System.out.println("Handling " + ev + " towards " + h);
-            }
-            try
-            {
-               Events.dispatch(ev, h);
-            }
-            catch (Exception e)
+            Event.Type type = eventTypes[i];
+            Object context = eventContexts[i];
+            eventContexts[i] = null;
+
+            for (EventHandler h : handlers.getHandlers(type))
             {
-               // TODO: logs
-               e.printStackTrace();
-               connection.setCondition(new ErrorCondition());
+               if (DebugInfo.debug)
+               {
+                  System.out.println("Handling " + type + " on " + context + " towards " + h);
+               }
+               try
+               {
+                  Events.dispatch(type, context, h);
+               }
+               catch (Exception e)
+               {
+                  // TODO: logs
+                  e.printStackTrace();
+                  connection.setCondition(new ErrorCondition());
+               }
             }
          }
       }
 
-      for (EventHandler h : handlers)
+      // every handler is told about the output, regardless of its interests
+      for (EventHandler h : handlers.getHandlers())
       {
          try
          {
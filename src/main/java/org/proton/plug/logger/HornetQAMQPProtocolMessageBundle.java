@@ -79,4 +79,7 @@ public interface HornetQAMQPProtocolMessageBundle
 
    @Message(id = 219015, value =  "error decoding AMQP frame", format = Message.Format.MESSAGE_FORMAT)
    String decodeError();
+
+   @Message(id = 219016, value =  "invalid selector \"{0}\" at position {1}: {2}", format = Message.Format.MESSAGE_FORMAT)
+   HornetQAMQPInvalidFieldException invalidSelector(String selector, int position, String message);
 }
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.selector;
+
+/**
+ * A node of a compiled selector
+ *
+ * @author Clebert Suconic
+ */
+interface Expression
+{
+   /**
+    * @return a Boolean, a Number, a String or null when the value is unknown (a missing property for instance)
+    */
+   Object evaluate(SelectorContext context);
+}
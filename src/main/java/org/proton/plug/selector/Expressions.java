@@ -0,0 +1,496 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.selector;
+
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * The nodes of a compiled selector. They follow the three valued logic of SQL (and JMS):
+ * null is unknown, and unknown is never selected.
+ *
+ * @author Clebert Suconic
+ */
+final class Expressions
+{
+   private Expressions()
+   {
+   }
+
+   static final int EQ = 0;
+   static final int NE = 1;
+   static final int LT = 2;
+   static final int LE = 3;
+   static final int GT = 4;
+   static final int GE = 5;
+
+   static final int ADD = 0;
+   static final int SUBTRACT = 1;
+   static final int MULTIPLY = 2;
+   static final int DIVIDE = 3;
+
+   static final class Literal implements Expression
+   {
+      final Object value;
+
+      Literal(Object value)
+      {
+         this.value = value;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         return value;
+      }
+   }
+
+   /**
+    * An application property, by its index on the selector's properties
+    */
+   static final class Property implements Expression
+   {
+      private final int index;
+
+      Property(int index)
+      {
+         this.index = index;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         return context.getProperty(index);
+      }
+   }
+
+   /**
+    * The JMS headers, as they are mapped into AMQP
+    */
+   enum HeaderField implements Expression
+   {
+      JMSDeliveryMode
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            return context.getMessage().isDurable() ? "PERSISTENT" : "NON_PERSISTENT";
+         }
+      },
+      JMSPriority
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            return Integer.valueOf(context.getMessage().getPriority());
+         }
+      },
+      JMSMessageID
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            Object id = context.getMessage().getMessageId();
+            return id == null ? null : id.toString();
+         }
+      },
+      JMSCorrelationID
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            Object id = context.getMessage().getCorrelationId();
+            return id == null ? null : id.toString();
+         }
+      },
+      JMSTimestamp
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            Properties properties = context.getMessage().getProperties();
+            return properties == null || properties.getCreationTime() == null ? null : properties.getCreationTime().getTime();
+         }
+      },
+      JMSExpiration
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            Properties properties = context.getMessage().getProperties();
+            return properties == null || properties.getAbsoluteExpiryTime() == null ? null : properties.getAbsoluteExpiryTime().getTime();
+         }
+      },
+      JMSType
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            return context.getMessage().getSubject();
+         }
+      },
+      JMSXUserID
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            byte[] userId = context.getMessage().getUserId();
+            return userId == null ? null : new String(userId);
+         }
+      },
+      JMSXGroupID
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            return context.getMessage().getGroupId();
+         }
+      },
+      JMSXGroupSeq
+      {
+         public Object evaluate(SelectorContext context)
+         {
+            Properties properties = context.getMessage().getProperties();
+            return properties == null || properties.getGroupSequence() == null ? null : properties.getGroupSequence().longValue();
+         }
+      };
+
+      static HeaderField find(String name)
+      {
+         for (HeaderField field : values())
+         {
+            if (field.name().equals(name))
+            {
+               return field;
+            }
+         }
+         return null;
+      }
+   }
+
+   static final class And implements Expression
+   {
+      private final Expression left;
+      private final Expression right;
+
+      And(Expression left, Expression right)
+      {
+         this.left = left;
+         this.right = right;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Boolean l = toBoolean(left.evaluate(context));
+         if (Boolean.FALSE.equals(l))
+         {
+            return Boolean.FALSE;
+         }
+         Boolean r = toBoolean(right.evaluate(context));
+         if (Boolean.FALSE.equals(r))
+         {
+            return Boolean.FALSE;
+         }
+         return l == null || r == null ? null : Boolean.TRUE;
+      }
+   }
+
+   static final class Or implements Expression
+   {
+      private final Expression left;
+      private final Expression right;
+
+      Or(Expression left, Expression right)
+      {
+         this.left = left;
+         this.right = right;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Boolean l = toBoolean(left.evaluate(context));
+         if (Boolean.TRUE.equals(l))
+         {
+            return Boolean.TRUE;
+         }
+         Boolean r = toBoolean(right.evaluate(context));
+         if (Boolean.TRUE.equals(r))
+         {
+            return Boolean.TRUE;
+         }
+         return l == null || r == null ? null : Boolean.FALSE;
+      }
+   }
+
+   static final class Not implements Expression
+   {
+      private final Expression expression;
+
+      Not(Expression expression)
+      {
+         this.expression = expression;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Boolean value = toBoolean(expression.evaluate(context));
+         return value == null ? null : !value;
+      }
+   }
+
+   static final class Comparison implements Expression
+   {
+      private final int operator;
+      private final Expression left;
+      private final Expression right;
+
+      Comparison(int operator, Expression left, Expression right)
+      {
+         this.operator = operator;
+         this.left = left;
+         this.right = right;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Object l = left.evaluate(context);
+         if (l == null)
+         {
+            return null;
+         }
+         Object r = right.evaluate(context);
+         if (r == null)
+         {
+            return null;
+         }
+
+         if (l instanceof Number && r instanceof Number)
+         {
+            int result = compareNumbers((Number) l, (Number) r);
+            switch (operator)
+            {
+               case EQ:
+                  return result == 0;
+               case NE:
+                  return result != 0;
+               case LT:
+                  return result < 0;
+               case LE:
+                  return result <= 0;
+               case GT:
+                  return result > 0;
+               default:
+                  return result >= 0;
+            }
+         }
+
+         // strings and booleans can only be compared for equality, anything else is unknown
+         if ((operator == EQ || operator == NE) &&
+            ((l instanceof String && r instanceof String) || (l instanceof Boolean && r instanceof Boolean)))
+         {
+            return l.equals(r) == (operator == EQ);
+         }
+
+         return null;
+      }
+   }
+
+   static final class Arithmetic implements Expression
+   {
+      private final int operator;
+      private final Expression left;
+      private final Expression right;
+
+      Arithmetic(int operator, Expression left, Expression right)
+      {
+         this.operator = operator;
+         this.left = left;
+         this.right = right;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Object l = left.evaluate(context);
+         if (!(l instanceof Number))
+         {
+            return null;
+         }
+         Object r = right.evaluate(context);
+         if (!(r instanceof Number))
+         {
+            return null;
+         }
+
+         if (isIntegral(l) && isIntegral(r))
+         {
+            long a = ((Number) l).longValue();
+            long b = ((Number) r).longValue();
+            switch (operator)
+            {
+               case ADD:
+                  return a + b;
+               case SUBTRACT:
+                  return a - b;
+               case MULTIPLY:
+                  return a * b;
+               default:
+                  return b == 0 ? null : a / b;
+            }
+         }
+
+         double a = ((Number) l).doubleValue();
+         double b = ((Number) r).doubleValue();
+         switch (operator)
+         {
+            case ADD:
+               return a + b;
+            case SUBTRACT:
+               return a - b;
+            case MULTIPLY:
+               return a * b;
+            default:
+               return a / b;
+         }
+      }
+   }
+
+   static final class Negate implements Expression
+   {
+      private final Expression expression;
+
+      Negate(Expression expression)
+      {
+         this.expression = expression;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         return negate(expression.evaluate(context));
+      }
+   }
+
+   static final class Between implements Expression
+   {
+      private final Expression value;
+      private final Expression low;
+      private final Expression high;
+
+      Between(Expression value, Expression low, Expression high)
+      {
+         this.value = value;
+         this.low = low;
+         this.high = high;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Object v = value.evaluate(context);
+         if (!(v instanceof Number))
+         {
+            return null;
+         }
+         Object l = low.evaluate(context);
+         Object h = high.evaluate(context);
+         if (!(l instanceof Number) || !(h instanceof Number))
+         {
+            return null;
+         }
+         return compareNumbers((Number) v, (Number) l) >= 0 && compareNumbers((Number) v, (Number) h) <= 0;
+      }
+   }
+
+   static final class In implements Expression
+   {
+      private final Expression value;
+      private final Set<String> list;
+
+      In(Expression value, Set<String> list)
+      {
+         this.value = value;
+         this.list = list;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Object v = value.evaluate(context);
+         if (!(v instanceof String))
+         {
+            return null;
+         }
+         return list.contains(v);
+      }
+   }
+
+   static final class Like implements Expression
+   {
+      private final Expression value;
+      private final Pattern pattern;
+
+      Like(Expression value, Pattern pattern)
+      {
+         this.value = value;
+         this.pattern = pattern;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         Object v = value.evaluate(context);
+         if (!(v instanceof String))
+         {
+            return null;
+         }
+         return pattern.matcher((String) v).matches();
+      }
+   }
+
+   static final class IsNull implements Expression
+   {
+      private final Expression value;
+
+      IsNull(Expression value)
+      {
+         this.value = value;
+      }
+
+      public Object evaluate(SelectorContext context)
+      {
+         return value.evaluate(context) == null;
+      }
+   }
+
+   static Boolean toBoolean(Object value)
+   {
+      return value instanceof Boolean ? (Boolean) value : null;
+   }
+
+   static Object negate(Object value)
+   {
+      if (!(value instanceof Number))
+      {
+         return null;
+      }
+      if (isIntegral(value))
+      {
+         return -((Number) value).longValue();
+      }
+      return -((Number) value).doubleValue();
+   }
+
+   private static boolean isIntegral(Object value)
+   {
+      return !(value instanceof Double || value instanceof Float || value instanceof BigDecimal);
+   }
+
+   private static int compareNumbers(Number l, Number r)
+   {
+      if (isIntegral(l) && isIntegral(r))
+      {
+         return Long.compare(l.longValue(), r.longValue());
+      }
+      return Double.compare(l.doubleValue(), r.doubleValue());
+   }
+}
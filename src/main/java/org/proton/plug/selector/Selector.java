@@ -0,0 +1,71 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.selector;
+
+import org.proton.plug.exceptions.HornetQAMQPInvalidFieldException;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * A JMS selector compiled into an evaluation tree, once per consumer.
+ * It's evaluated straight against the Properties and ApplicationProperties of a {@link ProtonServerMessage},
+ * decoding only the application properties the selector uses.
+ * <p/>
+ * Identifiers are application properties, except for the JMS headers which are mapped to the AMQP header and
+ * properties (JMSDeliveryMode, JMSPriority, JMSMessageID, JMSCorrelationID, JMSTimestamp, JMSExpiration, JMSType,
+ * JMSXUserID, JMSXGroupID and JMSXGroupSeq).
+ * A compiled selector is thread safe.
+ *
+ * @author Clebert Suconic
+ */
+public final class Selector
+{
+   private final String selector;
+
+   private final Expression expression;
+
+   private final String[] propertyNames;
+
+   private Selector(String selector, Expression expression, String[] propertyNames)
+   {
+      this.selector = selector;
+      this.expression = expression;
+      this.propertyNames = propertyNames;
+   }
+
+   public static Selector compile(String selector) throws HornetQAMQPInvalidFieldException
+   {
+      SelectorParser parser = new SelectorParser(selector);
+      Expression expression = parser.parse();
+      return new Selector(selector, expression, parser.getPropertyNames());
+   }
+
+   /**
+    * @return true if the selector is true for the message, false when it's false or unknown
+    */
+   public boolean matches(ProtonServerMessage message)
+   {
+      return Boolean.TRUE.equals(expression.evaluate(new SelectorContext(message, propertyNames)));
+   }
+
+   public String getSelector()
+   {
+      return selector;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Selector[" + selector + "]";
+   }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.selector;
+
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * The message being evaluated by a selector. The application properties used by the selector are read together
+ * the first time one of them is needed, the others are never decoded.
+ *
+ * @author Clebert Suconic
+ */
+final class SelectorContext
+{
+   private final ProtonServerMessage message;
+
+   private final String[] propertyNames;
+
+   private Object[] properties;
+
+   SelectorContext(ProtonServerMessage message, String[] propertyNames)
+   {
+      this.message = message;
+      this.propertyNames = propertyNames;
+   }
+
+   ProtonServerMessage getMessage()
+   {
+      return message;
+   }
+
+   Object getProperty(int index)
+   {
+      if (properties == null)
+      {
+         properties = new Object[propertyNames.length];
+         message.readApplicationProperties(propertyNames, properties);
+      }
+      return properties[index];
+   }
+}
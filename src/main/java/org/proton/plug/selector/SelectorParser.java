@@ -0,0 +1,504 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.selector;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.proton.plug.exceptions.HornetQAMQPInvalidFieldException;
+import org.proton.plug.logger.HornetQAMQPProtocolMessageBundle;
+
+/**
+ * A recursive descent parser for the JMS selector syntax (a subset of SQL92 conditional expressions):
+ * <pre>
+ * or         := and ( OR and )*
+ * and        := not ( AND not )*
+ * not        := NOT not | predicate
+ * predicate  := sum [ (= | &lt;&gt; | &lt; | &lt;= | &gt; | &gt;=) sum
+ *                   | [NOT] BETWEEN sum AND sum
+ *                   | [NOT] IN ( string, ... )
+ *                   | [NOT] LIKE string [ESCAPE string]
+ *                   | IS [NOT] NULL ]
+ * sum        := product ( (+ | -) product )*
+ * product    := unary ( (* | /) unary )*
+ * unary      := (+ | -) unary | literal | identifier | ( or )
+ * </pre>
+ *
+ * @author Clebert Suconic
+ */
+final class SelectorParser
+{
+   private final String selector;
+
+   private int position;
+
+   // the application properties used by the selector, by their index
+   private final Map<String, Integer> properties = new LinkedHashMap<>();
+
+   SelectorParser(String selector)
+   {
+      this.selector = selector;
+   }
+
+   Expression parse() throws HornetQAMQPInvalidFieldException
+   {
+      Expression expression = parseOr();
+      skipSpaces();
+      if (position < selector.length())
+      {
+         throw error("unexpected '" + selector.substring(position) + "'");
+      }
+      if (expression instanceof Expressions.Literal && !(((Expressions.Literal) expression).value instanceof Boolean))
+      {
+         throw error("the selector is not a boolean expression");
+      }
+      return expression;
+   }
+
+   String[] getPropertyNames()
+   {
+      return properties.keySet().toArray(new String[properties.size()]);
+   }
+
+   private Expression parseOr() throws HornetQAMQPInvalidFieldException
+   {
+      Expression expression = parseAnd();
+      while (keyword("OR"))
+      {
+         expression = new Expressions.Or(expression, parseAnd());
+      }
+      return expression;
+   }
+
+   private Expression parseAnd() throws HornetQAMQPInvalidFieldException
+   {
+      Expression expression = parseNot();
+      while (keyword("AND"))
+      {
+         expression = new Expressions.And(expression, parseNot());
+      }
+      return expression;
+   }
+
+   private Expression parseNot() throws HornetQAMQPInvalidFieldException
+   {
+      if (keyword("NOT"))
+      {
+         return new Expressions.Not(parseNot());
+      }
+      return parsePredicate();
+   }
+
+   private Expression parsePredicate() throws HornetQAMQPInvalidFieldException
+   {
+      Expression left = parseSum();
+
+      if (symbol("="))
+      {
+         return new Expressions.Comparison(Expressions.EQ, left, parseSum());
+      }
+      if (symbol("<>"))
+      {
+         return new Expressions.Comparison(Expressions.NE, left, parseSum());
+      }
+      if (symbol("<="))
+      {
+         return new Expressions.Comparison(Expressions.LE, left, parseSum());
+      }
+      if (symbol("<"))
+      {
+         return new Expressions.Comparison(Expressions.LT, left, parseSum());
+      }
+      if (symbol(">="))
+      {
+         return new Expressions.Comparison(Expressions.GE, left, parseSum());
+      }
+      if (symbol(">"))
+      {
+         return new Expressions.Comparison(Expressions.GT, left, parseSum());
+      }
+
+      if (keyword("IS"))
+      {
+         boolean not = keyword("NOT");
+         if (!keyword("NULL"))
+         {
+            throw error("NULL expected");
+         }
+         Expression isNull = new Expressions.IsNull(left);
+         return not ? new Expressions.Not(isNull) : isNull;
+      }
+
+      boolean not = keyword("NOT");
+      Expression expression;
+      if (keyword("BETWEEN"))
+      {
+         Expression low = parseSum();
+         if (!keyword("AND"))
+         {
+            throw error("AND expected");
+         }
+         expression = new Expressions.Between(left, low, parseSum());
+      }
+      else if (keyword("IN"))
+      {
+         expression = new Expressions.In(left, parseList());
+      }
+      else if (keyword("LIKE"))
+      {
+         String pattern = parseString();
+         Character escape = null;
+         if (keyword("ESCAPE"))
+         {
+            String escapeString = parseString();
+            if (escapeString.length() != 1)
+            {
+               throw error("ESCAPE must be a single character");
+            }
+            escape = escapeString.charAt(0);
+         }
+         expression = new Expressions.Like(left, compileLike(pattern, escape));
+      }
+      else if (not)
+      {
+         throw error("BETWEEN, IN or LIKE expected");
+      }
+      else
+      {
+         return left;
+      }
+
+      return not ? new Expressions.Not(expression) : expression;
+   }
+
+   private Expression parseSum() throws HornetQAMQPInvalidFieldException
+   {
+      Expression expression = parseProduct();
+      while (true)
+      {
+         if (symbol("+"))
+         {
+            expression = new Expressions.Arithmetic(Expressions.ADD, expression, parseProduct());
+         }
+         else if (symbol("-"))
+         {
+            expression = new Expressions.Arithmetic(Expressions.SUBTRACT, expression, parseProduct());
+         }
+         else
+         {
+            return expression;
+         }
+      }
+   }
+
+   private Expression parseProduct() throws HornetQAMQPInvalidFieldException
+   {
+      Expression expression = parseUnary();
+      while (true)
+      {
+         if (symbol("*"))
+         {
+            expression = new Expressions.Arithmetic(Expressions.MULTIPLY, expression, parseUnary());
+         }
+         else if (symbol("/"))
+         {
+            expression = new Expressions.Arithmetic(Expressions.DIVIDE, expression, parseUnary());
+         }
+         else
+         {
+            return expression;
+         }
+      }
+   }
+
+   private Expression parseUnary() throws HornetQAMQPInvalidFieldException
+   {
+      if (symbol("+"))
+      {
+         return parseUnary();
+      }
+      if (symbol("-"))
+      {
+         Expression expression = parseUnary();
+         if (expression instanceof Expressions.Literal)
+         {
+            // negative literals are folded at compile time
+            return new Expressions.Literal(Expressions.negate(((Expressions.Literal) expression).value));
+         }
+         return new Expressions.Negate(expression);
+      }
+
+      skipSpaces();
+      if (position >= selector.length())
+      {
+         throw error("unexpected end of the selector");
+      }
+
+      char c = selector.charAt(position);
+      if (c == '(')
+      {
+         position++;
+         Expression expression = parseOr();
+         if (!symbol(")"))
+         {
+            throw error("')' expected");
+         }
+         return expression;
+      }
+      if (c == '\'')
+      {
+         return new Expressions.Literal(parseString());
+      }
+      if (Character.isDigit(c) || c == '.')
+      {
+         return new Expressions.Literal(parseNumber());
+      }
+      if (Character.isJavaIdentifierStart(c))
+      {
+         return parseIdentifier();
+      }
+
+      throw error("unexpected '" + c + "'");
+   }
+
+   private Expression parseIdentifier() throws HornetQAMQPInvalidFieldException
+   {
+      int start = position;
+      while (position < selector.length() && Character.isJavaIdentifierPart(selector.charAt(position)))
+      {
+         position++;
+      }
+      String name = selector.substring(start, position);
+
+      if (name.equalsIgnoreCase("TRUE"))
+      {
+         return new Expressions.Literal(Boolean.TRUE);
+      }
+      if (name.equalsIgnoreCase("FALSE"))
+      {
+         return new Expressions.Literal(Boolean.FALSE);
+      }
+      if (isReserved(name))
+      {
+         position = start;
+         throw error("unexpected '" + name + "'");
+      }
+
+      Expressions.HeaderField field = Expressions.HeaderField.find(name);
+      if (field != null)
+      {
+         return field;
+      }
+
+      Integer index = properties.get(name);
+      if (index == null)
+      {
+         index = properties.size();
+         properties.put(name, index);
+      }
+      return new Expressions.Property(index);
+   }
+
+   private Set<String> parseList() throws HornetQAMQPInvalidFieldException
+   {
+      if (!symbol("("))
+      {
+         throw error("'(' expected");
+      }
+      Set<String> list = new HashSet<>();
+      do
+      {
+         list.add(parseString());
+      }
+      while (symbol(","));
+
+      if (!symbol(")"))
+      {
+         throw error("')' expected");
+      }
+      return list;
+   }
+
+   private String parseString() throws HornetQAMQPInvalidFieldException
+   {
+      skipSpaces();
+      if (position >= selector.length() || selector.charAt(position) != '\'')
+      {
+         throw error("string literal expected");
+      }
+      position++;
+
+      StringBuilder builder = new StringBuilder();
+      while (true)
+      {
+         if (position >= selector.length())
+         {
+            throw error("unterminated string literal");
+         }
+         char c = selector.charAt(position++);
+         if (c == '\'')
+         {
+            // a quote is escaped by another quote
+            if (position < selector.length() && selector.charAt(position) == '\'')
+            {
+               position++;
+            }
+            else
+            {
+               return builder.toString();
+            }
+         }
+         builder.append(c);
+      }
+   }
+
+   private Number parseNumber() throws HornetQAMQPInvalidFieldException
+   {
+      int start = position;
+      boolean decimal = false;
+      while (position < selector.length())
+      {
+         char c = selector.charAt(position);
+         if (Character.isDigit(c))
+         {
+            position++;
+         }
+         else if (c == '.')
+         {
+            decimal = true;
+            position++;
+         }
+         else if ((c == 'e' || c == 'E') && position + 1 < selector.length())
+         {
+            decimal = true;
+            position++;
+            if (selector.charAt(position) == '+' || selector.charAt(position) == '-')
+            {
+               position++;
+            }
+         }
+         else
+         {
+            break;
+         }
+      }
+
+      String number = selector.substring(start, position);
+      try
+      {
+         if (decimal)
+         {
+            return Double.valueOf(number);
+         }
+         // an exact number may have the long suffix
+         if (position < selector.length() && (selector.charAt(position) == 'l' || selector.charAt(position) == 'L'))
+         {
+            position++;
+         }
+         return Long.valueOf(number);
+      }
+      catch (NumberFormatException e)
+      {
+         position = start;
+         throw error("invalid number '" + number + "'");
+      }
+   }
+
+   private Pattern compileLike(String like, Character escape)
+   {
+      StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < like.length(); i++)
+      {
+         char c = like.charAt(i);
+         if (escape != null && c == escape && i + 1 < like.length())
+         {
+            appendLiteral(regex, like.charAt(++i));
+         }
+         else if (c == '%')
+         {
+            regex.append(".*");
+         }
+         else if (c == '_')
+         {
+            regex.append('.');
+         }
+         else
+         {
+            appendLiteral(regex, c);
+         }
+      }
+      return Pattern.compile(regex.toString(), Pattern.DOTALL);
+   }
+
+   private static void appendLiteral(StringBuilder regex, char c)
+   {
+      if ("\\[]{}()*+?.^$|".indexOf(c) >= 0)
+      {
+         regex.append('\\');
+      }
+      regex.append(c);
+   }
+
+   private static boolean isReserved(String name)
+   {
+      for (String keyword : new String[]{"NOT", "AND", "OR", "BETWEEN", "LIKE", "IN", "IS", "NULL", "ESCAPE"})
+      {
+         if (keyword.equalsIgnoreCase(name))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean keyword(String keyword)
+   {
+      skipSpaces();
+      int end = position + keyword.length();
+      if (end <= selector.length() && selector.regionMatches(true, position, keyword, 0, keyword.length()) &&
+         (end == selector.length() || !Character.isJavaIdentifierPart(selector.charAt(end))))
+      {
+         position = end;
+         return true;
+      }
+      return false;
+   }
+
+   private boolean symbol(String symbol)
+   {
+      skipSpaces();
+      if (selector.startsWith(symbol, position))
+      {
+         position += symbol.length();
+         return true;
+      }
+      return false;
+   }
+
+   private void skipSpaces()
+   {
+      while (position < selector.length() && Character.isWhitespace(selector.charAt(position)))
+      {
+         position++;
+      }
+   }
+
+   private HornetQAMQPInvalidFieldException error(String message)
+   {
+      return HornetQAMQPProtocolMessageBundle.BUNDLE.invalidSelector(selector, position, message);
+   }
+}
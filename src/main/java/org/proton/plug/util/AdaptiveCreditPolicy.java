@@ -0,0 +1,136 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.util;
+
+import org.proton.plug.AMQPCreditPolicy;
+
+/**
+ * The default credit policy for receivers.
+ * It tops up the producer when half of the window was used, and at that point the window doubles if serverSend has been
+ * fast, or halves if it has been slow.
+ * While the broker reports memory pressure through {@link org.proton.plug.AMQPSessionContext#setMemoryPressure(boolean)}
+ * no credits are given and the window goes to the minimum.
+ *
+ * @author Clebert Suconic
+ */
+public class AdaptiveCreditPolicy implements AMQPCreditPolicy
+{
+   public static final int DEFAULT_MIN_CREDITS = 10;
+
+   public static final int DEFAULT_INITIAL_CREDITS = 100;
+
+   public static final int DEFAULT_MAX_CREDITS = 10000;
+
+   public static final long DEFAULT_FAST_NANOS = 100 * 1000L;
+
+   public static final long DEFAULT_SLOW_NANOS = 10 * 1000 * 1000L;
+
+   private final int minCredits;
+
+   private final int initialCredits;
+
+   private final int maxCredits;
+
+   private final long fastNanos;
+
+   private final long slowNanos;
+
+   private int window;
+
+   // moving average of serverSend times, weighting the last one by 1/8
+   private long averageNanos;
+
+   private volatile boolean memoryPressure;
+
+   public AdaptiveCreditPolicy()
+   {
+      this(DEFAULT_MIN_CREDITS, DEFAULT_INITIAL_CREDITS, DEFAULT_MAX_CREDITS);
+   }
+
+   public AdaptiveCreditPolicy(int minCredits, int initialCredits, int maxCredits)
+   {
+      this(minCredits, initialCredits, maxCredits, DEFAULT_FAST_NANOS, DEFAULT_SLOW_NANOS);
+   }
+
+   /**
+    * @param fastNanos a serverSend averaging less than this will grow the window
+    * @param slowNanos a serverSend averaging more than this will shrink the window
+    */
+   public AdaptiveCreditPolicy(int minCredits, int initialCredits, int maxCredits, long fastNanos, long slowNanos)
+   {
+      this.minCredits = Math.max(1, minCredits);
+      this.maxCredits = Math.max(this.minCredits, maxCredits);
+      this.initialCredits = Math.min(this.maxCredits, Math.max(this.minCredits, initialCredits));
+      this.fastNanos = fastNanos;
+      this.slowNanos = slowNanos;
+      this.window = this.initialCredits;
+      this.averageNanos = (fastNanos + slowNanos) / 2;
+   }
+
+   /**
+    * While there is memory pressure the producer is given no more credits
+    */
+   public void setMemoryPressure(boolean memoryPressure)
+   {
+      this.memoryPressure = memoryPressure;
+   }
+
+   public boolean isMemoryPressure()
+   {
+      return memoryPressure;
+   }
+
+   public int getWindow()
+   {
+      return window;
+   }
+
+   public int getInitialCredits()
+   {
+      return initialCredits;
+   }
+
+   public int getCredits(int remoteCredit, long sendNanos)
+   {
+      if (sendNanos >= 0)
+      {
+         averageNanos += (sendNanos - averageNanos) >> 3;
+      }
+
+      if (memoryPressure)
+      {
+         window = minCredits;
+         return 0;
+      }
+
+      if (remoteCredit > 0 && remoteCredit >= window / 2)
+      {
+         return 0;
+      }
+
+      if (sendNanos >= 0)
+      {
+         if (averageNanos < fastNanos)
+         {
+            window = Math.min(maxCredits, window * 2);
+         }
+         else if (averageNanos > slowNanos)
+         {
+            window = Math.max(minCredits, window / 2);
+         }
+      }
+
+      return Math.max(0, window - remoteCredit);
+   }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.util;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The body of a large message, sent as a single Data section read in chunks as the transport is able to take them.
+ *
+ * @author Clebert Suconic
+ */
+public interface ChunkedBody
+{
+   /**
+    * @return the number of bytes of the body, it has to match what is read
+    */
+   long getSize();
+
+   /**
+    * It will write the next bytes of the body into the buffer, up to its writable bytes
+    * @return the number of bytes written, or -1 when there is nothing left
+    */
+   int read(ByteBuf buffer) throws Exception;
+
+   /**
+    * Called once the message was sent, or failed
+    */
+   void close();
+}
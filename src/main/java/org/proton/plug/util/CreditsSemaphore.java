@@ -73,6 +73,23 @@ public class CreditsSemaphore
          }
       }
 
+      public int tryAcquireUpTo(final int max)
+      {
+         for (;;)
+         {
+            int actualSize = getState();
+            int taken = Math.min(actualSize, max);
+            if (taken <= 0)
+            {
+               return 0;
+            }
+            if (compareAndSetState(actualSize, actualSize - taken))
+            {
+               return taken;
+            }
+         }
+      }
+
       public void setCredits(final int credits)
       {
          for (;;)
@@ -106,12 +123,31 @@ public class CreditsSemaphore
       return sync.tryAcquireShared(1) >= 0;
    }
 
-   public void release() throws InterruptedException
+   /**
+    * It will take as many credits as available, up to max, without blocking
+    * @return the number of credits taken
+    */
+   public int tryAcquire(int max)
+   {
+      return sync.tryAcquireUpTo(max);
+   }
+
+   /**
+    * It will block until at least one credit is available, and then take as many as available up to max
+    * @return the number of credits taken
+    */
+   public int acquireUpTo(int max) throws InterruptedException
+   {
+      sync.acquireSharedInterruptibly(1);
+      return 1 + sync.tryAcquireUpTo(max - 1);
+   }
+
+   public void release()
    {
       sync.releaseShared(1);
    }
 
-   public void release(int credits) throws InterruptedException
+   public void release(int credits)
    {
       sync.releaseShared(credits);
    }
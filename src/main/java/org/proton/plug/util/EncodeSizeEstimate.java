@@ -0,0 +1,57 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.util;
+
+/**
+ * Estimate of the encoded size of the next message, used to allocate the encode buffer at once.
+ * It goes up right away to any larger size and decays slowly, so the buffer rarely needs to grow while encoding.
+ * It's capped, so a single large message won't make every following buffer that large.
+ * Not thread safe, it's meant to be used by a single sender.
+ * @author Clebert Suconic
+ */
+public class EncodeSizeEstimate
+{
+   public static final int MIN_SIZE = 1024;
+
+   private final int maxSize;
+
+   private int estimate = MIN_SIZE;
+
+   public EncodeSizeEstimate()
+   {
+      this(Integer.MAX_VALUE);
+   }
+
+   /**
+    * @param maxSize the estimate won't go over this, a larger message will grow its buffer while encoding
+    */
+   public EncodeSizeEstimate(int maxSize)
+   {
+      this.maxSize = Math.max(MIN_SIZE, maxSize);
+   }
+
+   public int get()
+   {
+      return estimate;
+   }
+
+   /**
+    * @param size the size of the message that was just encoded
+    */
+   public void update(int size)
+   {
+      // decays 1/8 towards the last size
+      int decayed = estimate - (estimate >> 3) + (size >> 3);
+      estimate = Math.min(maxSize, Math.max(MIN_SIZE, Math.max(size, decayed)));
+   }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.util;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.apache.qpid.proton.amqp.UnsignedInteger;
+import org.apache.qpid.proton.amqp.messaging.Header;
+import org.apache.qpid.proton.codec.DecoderImpl;
+import org.apache.qpid.proton.codec.EncoderImpl;
+import org.apache.qpid.proton.codec.WritableBuffer;
+import org.apache.qpid.proton.message.ProtonJMessage;
+
+/**
+ * It keeps the encoded form of messages delivered to many consumers (topic subscriptions for instance),
+ * so a message is encoded once and only its header, where the delivery count lives, is encoded per delivery.
+ * <p/>
+ * The encoded sections are reference counted: the cache holds one reference and each delivery holds another
+ * while sending, so an eviction won't release bytes still being sent.
+ * The least recently used messages are evicted when the cache goes over maxBytes.
+ *
+ * @author Clebert Suconic
+ */
+public class EncodedMessageCache
+{
+   private static final int HEADER_TYPE = 0x070;
+
+   public static final class Entry
+   {
+      private final Header header;
+
+      private final ByteBuf encoded;
+
+      private final int sectionsOffset;
+
+      private Entry(Header header, ByteBuf encoded, int sectionsOffset)
+      {
+         this.header = header;
+         this.encoded = encoded;
+         this.sectionsOffset = sectionsOffset;
+      }
+
+      /**
+       * @return the sections after the header, you must release it after used
+       */
+      public ByteBuf getSections()
+      {
+         return encoded.slice(sectionsOffset, encoded.writerIndex() - sectionsOffset);
+      }
+
+      /**
+       * It will encode the header of the cached message with a different delivery count
+       * @return a pooled buffer you must release after used
+       */
+      public ByteBuf encodeHeader(int deliveryCount)
+      {
+         Header newHeader = new Header();
+         if (header != null)
+         {
+            newHeader.setDurable(header.getDurable());
+            newHeader.setPriority(header.getPriority());
+            newHeader.setTtl(header.getTtl());
+            newHeader.setFirstAcquirer(header.getFirstAcquirer());
+         }
+         newHeader.setDeliveryCount(UnsignedInteger.valueOf(deliveryCount));
+
+         ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(64);
+         EncoderImpl encoder = CodecCache.getEncoder();
+         encoder.setByteBuffer(new NettyWritable(buffer));
+         try
+         {
+            encoder.writeObject(newHeader);
+         }
+         finally
+         {
+            encoder.setByteBuffer((WritableBuffer) null);
+         }
+         return buffer;
+      }
+
+      int size()
+      {
+         return encoded.capacity();
+      }
+   }
+
+   private final long maxBytes;
+
+   private long currentBytes = 0;
+
+   private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+   public EncodedMessageCache(long maxBytes)
+   {
+      this.maxBytes = maxBytes;
+   }
+
+   /**
+    * @return the entry with its encoded bytes retained for the caller, who has to release them
+    *         (by releasing {@link Entry#getSections()}), or null if the message is not cached
+    */
+   public synchronized Entry acquire(Object key)
+   {
+      Entry entry = entries.get(key);
+      if (entry != null)
+      {
+         entry.encoded.retain();
+      }
+      return entry;
+   }
+
+   /**
+    * It will encode the message and cache it, unless another thread already did it
+    * @return the entry retained for the caller, as on {@link #acquire(Object)}
+    */
+   public Entry put(Object key, ProtonJMessage message)
+   {
+      Entry newEntry = encode(message);
+
+      if (newEntry.size() > maxBytes)
+      {
+         // too big to be cached, the caller will own the only reference
+         return newEntry;
+      }
+
+      synchronized (this)
+      {
+         Entry existing = entries.get(key);
+         if (existing != null)
+         {
+            newEntry.encoded.release();
+            existing.encoded.retain();
+            return existing;
+         }
+
+         entries.put(key, newEntry);
+         currentBytes += newEntry.size();
+         newEntry.encoded.retain();
+         evict();
+         return newEntry;
+      }
+   }
+
+   /**
+    * To be called when the message is gone from every queue
+    */
+   public synchronized void remove(Object key)
+   {
+      Entry entry = entries.remove(key);
+      if (entry != null)
+      {
+         currentBytes -= entry.size();
+         entry.encoded.release();
+      }
+   }
+
+   public synchronized void clear()
+   {
+      for (Entry entry : entries.values())
+      {
+         entry.encoded.release();
+      }
+      entries.clear();
+      currentBytes = 0;
+   }
+
+   public synchronized long getCurrentBytes()
+   {
+      return currentBytes;
+   }
+
+   public synchronized int size()
+   {
+      return entries.size();
+   }
+
+   private void evict()
+   {
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (currentBytes > maxBytes && iterator.hasNext())
+      {
+         Entry entry = iterator.next();
+         iterator.remove();
+         currentBytes -= entry.size();
+         entry.encoded.release();
+      }
+   }
+
+   private static Entry encode(ProtonJMessage message)
+   {
+      ByteBuf buffer = Unpooled.buffer(1024);
+      message.encode(new NettyWritable(buffer));
+
+      Header header = null;
+      int sectionsOffset = 0;
+
+      ByteBuffer nioBuffer = buffer.nioBuffer();
+      if (nioBuffer.remaining() > 0 && nioBuffer.get(0) == 0)
+      {
+         DecoderImpl decoder = CodecCache.getDecoder();
+         decoder.setByteBuffer(nioBuffer);
+         try
+         {
+            nioBuffer.position(1);
+            int type = ((Number) decoder.readObject()).intValue();
+            if (type == HEADER_TYPE)
+            {
+               nioBuffer.position(0);
+               header = (Header) decoder.readObject();
+               sectionsOffset = nioBuffer.position();
+            }
+         }
+         finally
+         {
+            decoder.setByteBuffer(null);
+         }
+      }
+
+      return new Entry(header, buffer, sectionsOffset);
+   }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A body read from a region of a file, such as a large message the broker spooled to disk.
+ * The channel is not closed by this class.
+ *
+ * @author Clebert Suconic
+ */
+public class FileChunkedBody implements ChunkedBody
+{
+   private final FileChannel channel;
+
+   private final long size;
+
+   private long position;
+
+   private final long end;
+
+   public FileChunkedBody(FileChannel channel, long position, long size)
+   {
+      this.channel = channel;
+      this.position = position;
+      this.size = size;
+      this.end = position + size;
+   }
+
+   public long getSize()
+   {
+      return size;
+   }
+
+   public int read(ByteBuf buffer) throws IOException
+   {
+      if (position >= end)
+      {
+         return -1;
+      }
+
+      int length = (int) Math.min(buffer.writableBytes(), end - position);
+      int read = channel.read(buffer.nioBuffer(buffer.writerIndex(), length), position);
+      if (read < 0)
+      {
+         throw new IOException("File ended at " + position + " but the body should have " + size + " bytes");
+      }
+      buffer.writerIndex(buffer.writerIndex() + read);
+      position += read;
+      return read;
+   }
+
+   public void close()
+   {
+   }
+}
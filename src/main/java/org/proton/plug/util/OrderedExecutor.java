@@ -0,0 +1,111 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs its tasks one at a time and in order, on threads borrowed from a shared executor.
+ * Many of these can share the same pool, each one using at most one of its threads at a time.
+ *
+ * @author Clebert Suconic
+ */
+public class OrderedExecutor implements Executor
+{
+   // after this many tasks the thread goes back to the pool, so a busy link won't hold it forever
+   private static final int MAX_TASKS_PER_RUN = 1000;
+
+   private final Executor parent;
+
+   private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+   private final AtomicBoolean running = new AtomicBoolean(false);
+
+   private final Runnable runner = new Runnable()
+   {
+      public void run()
+      {
+         int count = 0;
+         while (true)
+         {
+            Runnable task;
+            while ((task = tasks.poll()) != null)
+            {
+               try
+               {
+                  task.run();
+               }
+               catch (Throwable e)
+               {
+                  // TODO: logs
+                  e.printStackTrace();
+               }
+
+               if (++count >= MAX_TASKS_PER_RUN && !tasks.isEmpty())
+               {
+                  try
+                  {
+                     // still running, the next run will take it from here
+                     parent.execute(this);
+                     return;
+                  }
+                  catch (RejectedExecutionException e)
+                  {
+                     // the pool won't take it back, so we just keep going on this thread
+                     count = 0;
+                  }
+               }
+            }
+
+            running.set(false);
+
+            // a task could have been added after the last poll but before running was cleared
+            if (tasks.isEmpty() || !running.compareAndSet(false, true))
+            {
+               return;
+            }
+         }
+      }
+   };
+
+   public OrderedExecutor(Executor parent)
+   {
+      this.parent = parent;
+   }
+
+   /**
+    * @throws RejectedExecutionException if the parent rejected it, and then the task won't run
+    */
+   public void execute(Runnable task)
+   {
+      tasks.add(task);
+      if (running.compareAndSet(false, true))
+      {
+         try
+         {
+            parent.execute(runner);
+         }
+         catch (RejectedExecutionException e)
+         {
+            // nothing is running the queue, the next execute will try again with whatever was left on it
+            tasks.remove(task);
+            running.set(false);
+            throw e;
+         }
+      }
+   }
+}
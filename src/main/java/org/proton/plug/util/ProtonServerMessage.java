@@ -14,7 +14,18 @@
 package org.proton.plug.util;
 
 import java.nio.ByteBuffer;
-
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.UnsignedByte;
+import org.apache.qpid.proton.amqp.UnsignedInteger;
 import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
 import org.apache.qpid.proton.amqp.messaging.DeliveryAnnotations;
 import org.apache.qpid.proton.amqp.messaging.Footer;
@@ -30,23 +41,53 @@ import org.apache.qpid.proton.message.MessageFormat;
 import org.apache.qpid.proton.message.ProtonJMessage;
 
 /**
- * This is a serverMessage that won't deal with the body
+ * This is a serverMessage that won't deal with the body.
+ * Decoding only records where each section is, a section is decoded the first time it's used
+ * so routing on the address or on a property won't pay for the rest of the message.
+ * The header, annotations and properties can be changed: encode will only encode again the sections that were
+ * changed and copy the others as they were received. Changes are not thread safe.
  *
  * @author Clebert Suconic
  */
 public class ProtonServerMessage implements ProtonJMessage
 {
-   private Header header;
-   private DeliveryAnnotations deliveryAnnotations;
-   private MessageAnnotations messageAnnotations;
-   private Properties properties;
-   private ApplicationProperties applicationProperties;
-
-   // This should include a raw body of both footer and body
-   private byte[] rawBody;
-
-   private Section parsedBody;
-   private Footer parsedFooter;
+   // the sections are decoded from rawMessage the first time they are asked for
+   private volatile Header header;
+   private volatile DeliveryAnnotations deliveryAnnotations;
+   private volatile MessageAnnotations messageAnnotations;
+   private volatile Properties properties;
+   private volatile ApplicationProperties applicationProperties;
+   private volatile Section body;
+   private volatile Footer footer;
+
+   // The message as it was received, the raw body (both body and footer) starts at bodyPosition
+   private byte[] rawMessage;
+   private int rawOffset;
+   private int rawLength;
+   private int bodyPosition;
+
+   // where each section starts in rawMessage, or NONE
+   private int headerPosition = NONE;
+   private int deliveryAnnotationsPosition = NONE;
+   private int messageAnnotationsPosition = NONE;
+   private int propertiesPosition = NONE;
+   private int applicationPropertiesPosition = NONE;
+   // the footer is only looked for if someone asks for it, it's after the body
+   private int footerPosition = UNKNOWN;
+
+   // the sections changed after decode, they are encoded again instead of copied
+   private boolean headerModified;
+   private boolean deliveryAnnotationsModified;
+   private boolean messageAnnotationsModified;
+   private boolean propertiesModified;
+   private boolean applicationPropertiesModified;
+   private boolean bodyModified;
+   private boolean footerModified;
+
+   private static final int NONE = -1;
+   private static final int UNKNOWN = -2;
+
+   private static final short DEFAULT_PRIORITY = 4;
 
    private final int EOF = 0;
 
@@ -56,77 +97,131 @@ public class ProtonServerMessage implements ProtonJMessage
    private static final int MESSAGE_ANNOTATIONS = 0x072;
    private static final int PROPERTIES = 0x073;
    private static final int APPLICATION_PROPERTIES = 0x074;
+   private static final int FOOTER = 0x078;
 
 
    /**
     * This will decode a ByteBuffer tha represents the entire message.
     * Set the limits around the parameter.
+    * The buffer is copied once, as it's usually reused by the caller.
     *
     * @param buffer a limited buffer for the message
     */
    public void decode(ByteBuffer buffer)
    {
+      byte[] data = new byte[buffer.remaining()];
+      buffer.get(data);
+      decode(data, 0, data.length);
+   }
 
-      DecoderImpl decoder = CodecCache.getDecoder();
-
-
+   /**
+    * Same as {@link #decode(java.nio.ByteBuffer)} without any copy: the message will keep the array, which
+    * can't be changed after this.
+    */
+   @Override
+   public int decode(byte[] data, int offset, int length)
+   {
       header = null;
       deliveryAnnotations = null;
       messageAnnotations = null;
       properties = null;
       applicationProperties = null;
-      rawBody = null;
-
-      decoder.setByteBuffer(buffer);
-      try
+      body = null;
+      footer = null;
+
+      headerPosition = NONE;
+      deliveryAnnotationsPosition = NONE;
+      messageAnnotationsPosition = NONE;
+      propertiesPosition = NONE;
+      applicationPropertiesPosition = NONE;
+      footerPosition = UNKNOWN;
+
+      headerModified = false;
+      deliveryAnnotationsModified = false;
+      messageAnnotationsModified = false;
+      propertiesModified = false;
+      applicationPropertiesModified = false;
+      bodyModified = false;
+      footerModified = false;
+
+      rawMessage = data;
+      rawOffset = offset;
+      rawLength = length;
+      bodyPosition = offset + length;
+
+      // only the positions of the sections are recorded here, nothing is decoded until asked for
+      ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+
+      int type = readType(buffer);
+      if (type == HEADER_TYPE)
       {
-         int type = readType(buffer, decoder);
-         if (type == HEADER_TYPE)
-         {
-            header = (Header) readSection(buffer, decoder);
-            type = readType(buffer, decoder);
+         headerPosition = buffer.position();
+         skipValue(buffer);
+         type = readType(buffer);
+      }
 
-         }
+      if (type == DELIVERY_ANNOTATIONS)
+      {
+         deliveryAnnotationsPosition = buffer.position();
+         skipValue(buffer);
+         type = readType(buffer);
+      }
 
-         if (type == DELIVERY_ANNOTATIONS)
-         {
-            deliveryAnnotations = (DeliveryAnnotations) readSection(buffer, decoder);
-            type = readType(buffer, decoder);
+      if (type == MESSAGE_ANNOTATIONS)
+      {
+         messageAnnotationsPosition = buffer.position();
+         skipValue(buffer);
+         type = readType(buffer);
+      }
 
-         }
+      if (type == PROPERTIES)
+      {
+         propertiesPosition = buffer.position();
+         skipValue(buffer);
+         type = readType(buffer);
+      }
 
-         if (type == MESSAGE_ANNOTATIONS)
-         {
-            messageAnnotations = (MessageAnnotations) readSection(buffer, decoder);
-            type = readType(buffer, decoder);
-         }
+      if (type == APPLICATION_PROPERTIES)
+      {
+         applicationPropertiesPosition = buffer.position();
+         skipValue(buffer);
+         type = readType(buffer);
+      }
 
-         if (type == PROPERTIES)
-         {
-            properties = (Properties) readSection(buffer, decoder);
-            type = readType(buffer, decoder);
+      if (type != EOF)
+      {
+         bodyPosition = buffer.position();
+      }
 
-         }
+      return length;
+   }
 
-         if (type == APPLICATION_PROPERTIES)
-         {
-            applicationProperties = (ApplicationProperties) readSection(buffer, decoder);
-            type = readType(buffer, decoder);
-         }
 
-         if (type != EOF)
-         {
-            rawBody = new byte[buffer.limit() - buffer.position()];
-            buffer.get(rawBody);
-         }
-      }
-      finally
+   /**
+    * The message exactly as it was decoded, so it can be sent without being encoded again.
+    * @return null if the message wasn't decoded from a buffer or if it was changed since
+    */
+   public ByteBuf getRawMessage()
+   {
+      if (rawMessage == null || isModified())
       {
-         decoder.setByteBuffer(null);
+         return null;
       }
-
+      return Unpooled.wrappedBuffer(rawMessage, rawOffset, rawLength);
    }
 
+   /**
+    * The body sections and the footer as they were received, without any copy.
+    * @return null if the message wasn't decoded from a buffer or if the body or the footer were changed since
+    */
+   public ByteBuf getRawBody()
+   {
+      if (rawMessage == null || bodyModified || footerModified)
+      {
+         return null;
+      }
+      return Unpooled.wrappedBuffer(rawMessage, bodyPosition, rawOffset + rawLength - bodyPosition);
+   }
 
    public void encode(ByteBuffer buffer)
    {
@@ -138,45 +233,54 @@ public class ProtonServerMessage implements ProtonJMessage
    {
       final int firstPosition = writableBuffer.position();
 
+      if (rawMessage != null && !isModified())
+      {
+         // nothing was changed, the message is copied as it was received
+         writableBuffer.put(rawMessage, rawOffset, rawLength);
+         return writableBuffer.position() - firstPosition;
+      }
+
       EncoderImpl encoder = CodecCache.getEncoder();
       encoder.setByteBuffer(writableBuffer);
-
       try
       {
-         if (header != null)
-         {
-            encoder.writeObject(header);
-         }
-         if (deliveryAnnotations != null)
-         {
-            encoder.writeObject(deliveryAnnotations);
-         }
-         if (messageAnnotations != null)
-         {
-            encoder.writeObject(messageAnnotations);
-         }
-         if (properties != null)
+         // only the changed sections are encoded, the others are copied as they were received
+         writeSection(writableBuffer, encoder, headerModified, header, headerPosition);
+         writeSection(writableBuffer, encoder, deliveryAnnotationsModified, deliveryAnnotations, deliveryAnnotationsPosition);
+         writeSection(writableBuffer, encoder, messageAnnotationsModified, messageAnnotations, messageAnnotationsPosition);
+         writeSection(writableBuffer, encoder, propertiesModified, properties, propertiesPosition);
+         writeSection(writableBuffer, encoder, applicationPropertiesModified, applicationProperties, applicationPropertiesPosition);
+
+         if (!bodyModified && !footerModified)
          {
-            encoder.writeObject(properties);
+            if (rawMessage != null)
+            {
+               writableBuffer.put(rawMessage, bodyPosition, rawOffset + rawLength - bodyPosition);
+            }
          }
-         if (applicationProperties != null)
+         else
          {
-            encoder.writeObject(applicationProperties);
-         }
+            if (bodyModified)
+            {
+               // null if it was removed
+               if (body != null)
+               {
+                  encoder.writeObject(body);
+               }
+            }
+            else if (rawMessage != null)
+            {
+               // only the footer changed, the body is copied without the old footer
+               int bodyEnd = getFooterPosition() == NONE ? rawOffset + rawLength : getFooterPosition();
+               writableBuffer.put(rawMessage, bodyPosition, bodyEnd - bodyPosition);
+            }
 
-         // It should write either the parsed one or the rawBody
-         if (parsedBody != null)
-         {
-            encoder.writeObject(parsedBody);
-            if (parsedFooter != null)
+            Footer footer = getFooter();
+            if (footer != null)
             {
-               encoder.writeObject(parsedFooter);
+               encoder.writeObject(footer);
             }
          }
-         else if (rawBody != null)
-         {
-            writableBuffer.put(rawBody, 0, rawBody.length);
-         }
 
          return writableBuffer.position() - firstPosition;
       }
@@ -186,8 +290,38 @@ public class ProtonServerMessage implements ProtonJMessage
       }
    }
 
+   private void writeSection(WritableBuffer writableBuffer, EncoderImpl encoder, boolean modified, Section section, int position)
+   {
+      if (modified)
+      {
+         // null if it was removed
+         if (section != null)
+         {
+            encoder.writeObject(section);
+         }
+      }
+      else if (position != NONE)
+      {
+         ByteBuffer buffer = ByteBuffer.wrap(rawMessage, position, rawOffset + rawLength - position);
+         skipValue(buffer);
+         writableBuffer.put(rawMessage, position, buffer.position() - position);
+      }
+   }
+
+   /**
+    * @return true if any section was changed after the message was decoded
+    */
+   public boolean isModified()
+   {
+      return headerModified || deliveryAnnotationsModified || messageAnnotationsModified || propertiesModified ||
+         applicationPropertiesModified || bodyModified || footerModified;
+   }
 
-   private int readType(ByteBuffer buffer, DecoderImpl decoder)
+
+   /**
+    * It will look at the descriptor of the next section, leaving the buffer where it was
+    */
+   private int readType(ByteBuffer buffer)
    {
 
       int pos = buffer.position();
@@ -204,7 +338,16 @@ public class ProtonServerMessage implements ProtonJMessage
          }
          else
          {
-            return ((Number) decoder.readObject()).intValue();
+            // the sections are always described by an ulong
+            switch (buffer.get() & 0xff)
+            {
+               case 0x53:
+                  return buffer.get() & 0xff;
+               case 0x80:
+                  return (int) buffer.getLong();
+               default:
+                  return EOF;
+            }
          }
       }
       finally
@@ -213,326 +356,642 @@ public class ProtonServerMessage implements ProtonJMessage
       }
    }
 
+   /**
+    * It will move the buffer after the next value (described or not), using only the sizes of the AMQP encoding
+    */
+   private static void skipValue(ByteBuffer buffer)
+   {
+      int code = buffer.get() & 0xff;
+      if (code == 0)
+      {
+         // described type: the descriptor and then the value
+         skipValue(buffer);
+         skipValue(buffer);
+         return;
+      }
+
+      switch (code >> 4)
+      {
+         case 0x4:
+            break;
+         case 0x5:
+            buffer.position(buffer.position() + 1);
+            break;
+         case 0x6:
+            buffer.position(buffer.position() + 2);
+            break;
+         case 0x7:
+            buffer.position(buffer.position() + 4);
+            break;
+         case 0x8:
+            buffer.position(buffer.position() + 8);
+            break;
+         case 0x9:
+            buffer.position(buffer.position() + 16);
+            break;
+         case 0xa:
+         case 0xc:
+         case 0xe:
+            // binary, strings and symbols, lists and maps, or arrays with a one byte size
+            int size = buffer.get() & 0xff;
+            buffer.position(buffer.position() + size);
+            break;
+         case 0xb:
+         case 0xd:
+         case 0xf:
+            buffer.position(buffer.position() + buffer.getInt());
+            break;
+         default:
+            throw new IllegalArgumentException("Invalid AMQP type 0x" + Integer.toHexString(code));
+      }
+   }
 
-   private Section readSection(ByteBuffer buffer, DecoderImpl decoder)
+   private Section decodeSection(int position)
    {
-      if (buffer.hasRemaining())
+      DecoderImpl decoder = CodecCache.getDecoder();
+      decoder.setByteBuffer(ByteBuffer.wrap(rawMessage, position, rawOffset + rawLength - position));
+      try
       {
          return (Section) decoder.readObject();
       }
-      else
+      finally
       {
-         return null;
+         decoder.setByteBuffer(null);
+      }
+   }
+
+   /**
+    * It will read only the given application properties, skipping over the encoding of the others
+    * instead of decoding the whole map. Used by selectors, which only look at a few properties.
+    *
+    * @param names the names of the properties
+    * @param values the value of each name is set at the same index, it's left null if the message doesn't have it
+    */
+   public void readApplicationProperties(String[] names, Object[] values)
+   {
+      ApplicationProperties applicationProperties = this.applicationProperties;
+      if (applicationProperties != null || applicationPropertiesModified || applicationPropertiesPosition == NONE)
+      {
+         // already decoded (or changed), nothing to be saved here
+         readApplicationProperties(applicationProperties, names, values);
+         return;
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(rawMessage, applicationPropertiesPosition, rawOffset + rawLength - applicationPropertiesPosition);
+
+      // the descriptor
+      buffer.get();
+      skipValue(buffer);
+
+      int count;
+      switch (buffer.get() & 0xff)
+      {
+         case 0xc1:
+            buffer.get();
+            count = buffer.get() & 0xff;
+            break;
+         case 0xd1:
+            buffer.getInt();
+            count = buffer.getInt();
+            break;
+         default:
+            // not a map we can walk through (null for instance)
+            readApplicationProperties(getApplicationProperties(), names, values);
+            return;
+      }
+
+      DecoderImpl decoder = CodecCache.getDecoder();
+      decoder.setByteBuffer(buffer);
+      try
+      {
+         int found = 0;
+         for (int i = 0; i < count && found < names.length; i += 2)
+         {
+            int index = readKey(buffer, names);
+            if (index < 0)
+            {
+               skipValue(buffer);
+            }
+            else
+            {
+               values[index] = decoder.readObject();
+               found++;
+            }
+         }
+      }
+      finally
+      {
+         decoder.setByteBuffer(null);
+      }
+   }
+
+   private static void readApplicationProperties(ApplicationProperties applicationProperties, String[] names, Object[] values)
+   {
+      Map map = applicationProperties == null ? null : applicationProperties.getValue();
+      if (map != null)
+      {
+         for (int i = 0; i < names.length; i++)
+         {
+            values[i] = map.get(names[i]);
+         }
+      }
+   }
+
+   /**
+    * It will move the buffer after the key, comparing it to the names without creating a String
+    * @return the index of the name, or -1
+    */
+   private static int readKey(ByteBuffer buffer, String[] names)
+   {
+      int length;
+      switch (buffer.get() & 0xff)
+      {
+         case 0xa1:
+         case 0xa3:
+            length = buffer.get() & 0xff;
+            break;
+         case 0xb1:
+         case 0xb3:
+            length = buffer.getInt();
+            break;
+         default:
+            // not a string, it can't be a property we are looking for
+            buffer.position(buffer.position() - 1);
+            skipValue(buffer);
+            return -1;
+      }
+
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset() + buffer.position();
+      buffer.position(buffer.position() + length);
+
+      for (int i = 0; i < names.length; i++)
+      {
+         if (keyEquals(array, offset, length, names[i]))
+         {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static boolean keyEquals(byte[] array, int offset, int length, String name)
+   {
+      if (length < name.length())
+      {
+         // utf-8 won't have less bytes than chars
+         return false;
+      }
+
+      for (int i = 0; i < length; i++)
+      {
+         byte b = array[offset + i];
+         if (b < 0)
+         {
+            // not ascii, let's do it the slow way
+            return new String(array, offset, length, StandardCharsets.UTF_8).equals(name);
+         }
+         if (i >= name.length() || name.charAt(i) != b)
+         {
+            return false;
+         }
       }
+      return true;
    }
 
+   private int getFooterPosition()
+   {
+      if (footerPosition == UNKNOWN)
+      {
+         int position = NONE;
+         ByteBuffer buffer = ByteBuffer.wrap(rawMessage, bodyPosition, rawOffset + rawLength - bodyPosition);
+         int type;
+         while ((type = readType(buffer)) != EOF)
+         {
+            if (type == FOOTER)
+            {
+               position = buffer.position();
+               break;
+            }
+            skipValue(buffer);
+         }
+         footerPosition = position;
+      }
+      return footerPosition;
+   }
+
+   private Header modifyHeader()
+   {
+      Header header = getHeader();
+      if (header == null)
+      {
+         header = new Header();
+         this.header = header;
+      }
+      headerModified = true;
+      return header;
+   }
+
+   private Properties modifyProperties()
+   {
+      Properties properties = getProperties();
+      if (properties == null)
+      {
+         properties = new Properties();
+         this.properties = properties;
+      }
+      propertiesModified = true;
+      return properties;
+   }
+
+   /**
+    * It will add (or replace) a message annotation, the other sections are still sent as they were received
+    */
+   public void setMessageAnnotation(String key, Object value)
+   {
+      MessageAnnotations annotations = getMessageAnnotations();
+      Map<Symbol, Object> map = new HashMap<>();
+      if (annotations != null && annotations.getValue() != null)
+      {
+         map.putAll(annotations.getValue());
+      }
+      map.put(Symbol.valueOf(key), value);
+      setMessageAnnotations(new MessageAnnotations(map));
+   }
 
 
-   // At the moment we only need encode implemented!!!
    @Override
    public boolean isDurable()
    {
-      return false;
+      Header header = getHeader();
+      return header != null && header.getDurable() != null && header.getDurable();
    }
 
    @Override
    public long getDeliveryCount()
    {
-      return 0;
+      Header header = getHeader();
+      return header == null || header.getDeliveryCount() == null ? 0 : header.getDeliveryCount().longValue();
    }
 
    @Override
    public short getPriority()
    {
-      return 0;
+      Header header = getHeader();
+      return header == null || header.getPriority() == null ? DEFAULT_PRIORITY : header.getPriority().shortValue();
    }
 
    @Override
    public boolean isFirstAcquirer()
    {
-      return false;
+      Header header = getHeader();
+      return header != null && header.getFirstAcquirer() != null && header.getFirstAcquirer();
    }
 
    @Override
    public long getTtl()
    {
-      return 0;
+      Header header = getHeader();
+      return header == null || header.getTtl() == null ? 0 : header.getTtl().longValue();
    }
 
    @Override
    public void setDurable(boolean durable)
    {
-
+      modifyHeader().setDurable(durable);
    }
 
    @Override
    public void setTtl(long ttl)
    {
-
+      modifyHeader().setTtl(UnsignedInteger.valueOf(ttl));
    }
 
    @Override
    public void setDeliveryCount(long deliveryCount)
    {
-
+      modifyHeader().setDeliveryCount(UnsignedInteger.valueOf(deliveryCount));
    }
 
    @Override
    public void setFirstAcquirer(boolean firstAcquirer)
    {
-
+      modifyHeader().setFirstAcquirer(firstAcquirer);
    }
 
    @Override
    public void setPriority(short priority)
    {
-
+      modifyHeader().setPriority(UnsignedByte.valueOf((byte) priority));
    }
 
    @Override
    public Object getMessageId()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getMessageId();
    }
 
    @Override
    public long getGroupSequence()
    {
-      return 0;
+      Properties properties = getProperties();
+      return properties == null || properties.getGroupSequence() == null ? 0 : properties.getGroupSequence().intValue();
    }
 
    @Override
    public String getReplyToGroupId()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getReplyToGroupId();
    }
 
    @Override
    public long getCreationTime()
    {
-      return 0;
+      Properties properties = getProperties();
+      return properties == null || properties.getCreationTime() == null ? 0 : properties.getCreationTime().getTime();
    }
 
    @Override
    public String getAddress()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getTo();
    }
 
    @Override
    public byte[] getUserId()
    {
-      return new byte[0];
+      Properties properties = getProperties();
+      if (properties == null || properties.getUserId() == null)
+      {
+         return null;
+      }
+      Binary userId = properties.getUserId();
+      byte[] id = new byte[userId.getLength()];
+      System.arraycopy(userId.getArray(), userId.getArrayOffset(), id, 0, userId.getLength());
+      return id;
    }
 
    @Override
    public String getReplyTo()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getReplyTo();
    }
 
    @Override
    public String getGroupId()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getGroupId();
    }
 
    @Override
    public String getContentType()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null || properties.getContentType() == null ? null : properties.getContentType().toString();
    }
 
    @Override
    public long getExpiryTime()
    {
-      return 0;
+      Properties properties = getProperties();
+      return properties == null || properties.getAbsoluteExpiryTime() == null ? 0 : properties.getAbsoluteExpiryTime().getTime();
    }
 
    @Override
    public Object getCorrelationId()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getCorrelationId();
    }
 
    @Override
    public String getContentEncoding()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null || properties.getContentEncoding() == null ? null : properties.getContentEncoding().toString();
    }
 
    @Override
    public String getSubject()
    {
-      return null;
+      Properties properties = getProperties();
+      return properties == null ? null : properties.getSubject();
    }
 
    @Override
    public void setGroupSequence(long groupSequence)
    {
-
+      modifyProperties().setGroupSequence(UnsignedInteger.valueOf((int) groupSequence));
    }
 
    @Override
    public void setUserId(byte[] userId)
    {
-
+      modifyProperties().setUserId(userId == null ? null : new Binary(userId));
    }
 
    @Override
    public void setCreationTime(long creationTime)
    {
-
+      modifyProperties().setCreationTime(new Date(creationTime));
    }
 
    @Override
    public void setSubject(String subject)
    {
-
+      modifyProperties().setSubject(subject);
    }
 
    @Override
    public void setGroupId(String groupId)
    {
-
+      modifyProperties().setGroupId(groupId);
    }
 
    @Override
    public void setAddress(String to)
    {
-
+      modifyProperties().setTo(to);
    }
 
    @Override
    public void setExpiryTime(long absoluteExpiryTime)
    {
-
+      modifyProperties().setAbsoluteExpiryTime(new Date(absoluteExpiryTime));
    }
 
    @Override
    public void setReplyToGroupId(String replyToGroupId)
    {
-
+      modifyProperties().setReplyToGroupId(replyToGroupId);
    }
 
    @Override
    public void setContentEncoding(String contentEncoding)
    {
-
+      modifyProperties().setContentEncoding(contentEncoding == null ? null : Symbol.valueOf(contentEncoding));
    }
 
    @Override
    public void setContentType(String contentType)
    {
-
+      modifyProperties().setContentType(contentType == null ? null : Symbol.valueOf(contentType));
    }
 
    @Override
    public void setReplyTo(String replyTo)
    {
-
+      modifyProperties().setReplyTo(replyTo);
    }
 
    @Override
    public void setCorrelationId(Object correlationId)
    {
-
+      modifyProperties().setCorrelationId(correlationId);
    }
 
    @Override
    public void setMessageId(Object messageId)
    {
-
+      modifyProperties().setMessageId(messageId);
    }
 
    @Override
    public Header getHeader()
    {
-      return null;
+      Header header = this.header;
+      if (header == null && !headerModified && headerPosition != NONE)
+      {
+         header = (Header) decodeSection(headerPosition);
+         this.header = header;
+      }
+      return header;
    }
 
    @Override
    public DeliveryAnnotations getDeliveryAnnotations()
    {
-      return null;
+      DeliveryAnnotations deliveryAnnotations = this.deliveryAnnotations;
+      if (deliveryAnnotations == null && !deliveryAnnotationsModified && deliveryAnnotationsPosition != NONE)
+      {
+         deliveryAnnotations = (DeliveryAnnotations) decodeSection(deliveryAnnotationsPosition);
+         this.deliveryAnnotations = deliveryAnnotations;
+      }
+      return deliveryAnnotations;
    }
 
    @Override
    public MessageAnnotations getMessageAnnotations()
    {
-      return null;
+      MessageAnnotations messageAnnotations = this.messageAnnotations;
+      if (messageAnnotations == null && !messageAnnotationsModified && messageAnnotationsPosition != NONE)
+      {
+         messageAnnotations = (MessageAnnotations) decodeSection(messageAnnotationsPosition);
+         this.messageAnnotations = messageAnnotations;
+      }
+      return messageAnnotations;
    }
 
    @Override
    public Properties getProperties()
    {
-      return null;
+      Properties properties = this.properties;
+      if (properties == null && !propertiesModified && propertiesPosition != NONE)
+      {
+         properties = (Properties) decodeSection(propertiesPosition);
+         this.properties = properties;
+      }
+      return properties;
    }
 
    @Override
    public ApplicationProperties getApplicationProperties()
    {
-      return null;
+      ApplicationProperties applicationProperties = this.applicationProperties;
+      if (applicationProperties == null && !applicationPropertiesModified && applicationPropertiesPosition != NONE)
+      {
+         applicationProperties = (ApplicationProperties) decodeSection(applicationPropertiesPosition);
+         this.applicationProperties = applicationProperties;
+      }
+      return applicationProperties;
    }
 
    @Override
    public Section getBody()
    {
-      return null;
+      Section body = this.body;
+      if (body == null && !bodyModified && rawMessage != null && bodyPosition < rawOffset + rawLength && bodyPosition != getFooterPosition())
+      {
+         body = decodeSection(bodyPosition);
+         this.body = body;
+      }
+      return body;
    }
 
    @Override
    public Footer getFooter()
    {
-      return null;
+      Footer footer = this.footer;
+      if (footer == null && !footerModified && rawMessage != null && getFooterPosition() != NONE)
+      {
+         footer = (Footer) decodeSection(getFooterPosition());
+         this.footer = footer;
+      }
+      return footer;
    }
 
    @Override
    public void setHeader(Header header)
    {
-
+      this.header = header;
+      headerModified = true;
    }
 
    @Override
    public void setDeliveryAnnotations(DeliveryAnnotations deliveryAnnotations)
    {
-
+      this.deliveryAnnotations = deliveryAnnotations;
+      deliveryAnnotationsModified = true;
    }
 
    @Override
    public void setMessageAnnotations(MessageAnnotations messageAnnotations)
    {
-
+      this.messageAnnotations = messageAnnotations;
+      messageAnnotationsModified = true;
    }
 
    @Override
    public void setProperties(Properties properties)
    {
-
+      this.properties = properties;
+      propertiesModified = true;
    }
 
    @Override
    public void setApplicationProperties(ApplicationProperties applicationProperties)
    {
-
+      this.applicationProperties = applicationProperties;
+      applicationPropertiesModified = true;
    }
 
    @Override
    public void setBody(Section body)
    {
-
+      this.body = body;
+      bodyModified = true;
    }
 
    @Override
    public void setFooter(Footer footer)
    {
-
-   }
-
-   @Override
-   public int decode(byte[] data, int offset, int length)
-   {
-      return 0;
+      this.footer = footer;
+      footerModified = true;
    }
 
    @Override
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Receiver;
+
+/**
+ * A buffer kept by a receiver link to read its deliveries, instead of taking a new one from the pool for every message.
+ * Whoever gets the bytes and wants to keep them has to retain() the buffer (or a slice of it). The buffer is then
+ * left to them and a new one is used for the next delivery.
+ * It's sized to the deliveries of the link: it grows to the largest delivery, and it's replaced by a smaller one
+ * if the deliveries became a lot smaller.
+ * Not thread safe, it's used with the connection lock held.
+ *
+ * @author Clebert Suconic
+ */
+public class ReceiveBuffer
+{
+   private static final int MIN_SIZE = 1024;
+
+   private ByteBuf buffer;
+
+   // moving average of the delivery sizes, weighting the last one by 1/8
+   private int averageSize = MIN_SIZE;
+
+   /**
+    * It will read the whole delivery, which can't be partial anymore
+    * @return a buffer with the delivery, valid until the next read unless retained
+    */
+   public ByteBuf read(Receiver receiver, Delivery delivery)
+   {
+      int size = delivery.pending();
+      averageSize += (size - averageSize) >> 3;
+
+      if (buffer != null && (buffer.refCnt() > 1 || buffer.capacity() > Math.max(MIN_SIZE, averageSize) * 4))
+      {
+         // either it was retained by whoever got it last time, or it's too big for the deliveries we are getting now
+         buffer.release();
+         buffer = null;
+      }
+
+      if (buffer == null)
+      {
+         buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(Math.max(MIN_SIZE, Math.max(size, averageSize)));
+      }
+      else
+      {
+         buffer.clear();
+         buffer.ensureWritable(size);
+      }
+
+      DeliveryUtil.readDelivery(receiver, buffer);
+      return buffer;
+   }
+
+   public void release()
+   {
+      if (buffer != null)
+      {
+         buffer.release();
+         buffer = null;
+      }
+   }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.engine.Sender;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.context.server.ProtonServerSenderContext;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.minimalserver.MinimalSessionSPI;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+
+/**
+ * Acks go to the broker in batches, and the deliveries are settled even when the batch failed
+ * @author Clebert Suconic
+ */
+public class AckBatchTest extends SimpleServerAbstractTest
+{
+   private static final int NUMBER_OF_MESSAGES = 100;
+
+   public AckBatchTest()
+   {
+      super(false, false);
+   }
+
+   @Test
+   public void testAckBatch() throws Throwable
+   {
+      doTestAckBatch(false);
+   }
+
+   @Test
+   public void testFailedAckBatch() throws Throwable
+   {
+      doTestAckBatch(true);
+   }
+
+   private void doTestAckBatch(boolean fail) throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("AckBatch", true);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+         sender.send(message);
+      }
+
+      MinimalSessionSPI.ackedMessages.set(0);
+      MinimalSessionSPI.failNextAckBatch.set(fail);
+
+      AMQPClientReceiverContext receiver = session.createReceiver("AckBatch");
+      receiver.flow(NUMBER_OF_MESSAGES);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         Assert.assertNotNull("Could not receive message " + i, receiver.receiveMessage(5, TimeUnit.SECONDS));
+      }
+
+      Sender serverSender = ((ProtonServerSenderContext) MinimalSessionSPI.lastSender).getSender();
+
+      // every accepted delivery has to be settled, whatever happened to its batch
+      long timeout = System.currentTimeMillis() + 5000;
+      while (serverSender.getUnsettled() > 0 && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+
+      Assert.assertEquals(0, serverSender.getUnsettled());
+      Assert.assertFalse(MinimalSessionSPI.failNextAckBatch.get());
+
+      if (fail)
+      {
+         Assert.assertTrue(MinimalSessionSPI.ackedMessages.get() < NUMBER_OF_MESSAGES);
+      }
+      else
+      {
+         Assert.assertEquals(NUMBER_OF_MESSAGES, MinimalSessionSPI.ackedMessages.get());
+      }
+   }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.proton.plug.AMQPConnectionOptions;
+import org.proton.plug.test.minimalserver.DumbServer;
+
+/**
+ * The server settles the messages only once its store completed them, or once the link's executor called serverSend
+ * @author Clebert Suconic
+ */
+@RunWith(Parameterized.class)
+public class AsyncServerSendTest extends AbstractJMSTest
+{
+   protected Connection connection;
+
+   private final boolean asyncServerSend;
+
+   private final boolean useExecutor;
+
+   private ExecutorService executor;
+
+   @Parameterized.Parameters(name = "async={0} executor={1}")
+   public static Collection<Object[]> data()
+   {
+      return Arrays.asList(new Object[][]{
+         {true, false},
+         {false, true},
+         {true, true}});
+   }
+
+   public AsyncServerSendTest(boolean asyncServerSend, boolean useExecutor)
+   {
+      super(false, true);
+      this.asyncServerSend = asyncServerSend;
+      this.useExecutor = useExecutor;
+   }
+
+   @Before
+   public void setUp() throws Exception
+   {
+      DumbServer.clear();
+      AMQPConnectionOptions options = new AMQPConnectionOptions().setAsyncServerSend(asyncServerSend);
+      if (useExecutor)
+      {
+         executor = Executors.newFixedThreadPool(4);
+         options.setServerSendExecutor(executor);
+      }
+      server.setOptions(options);
+      server.start("127.0.0.1", Constants.PORT, useSASL);
+      connection = createConnection();
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (connection != null)
+      {
+         connection.close();
+      }
+
+      super.tearDown();
+
+      if (executor != null)
+      {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testPersistentMessages() throws Exception
+   {
+      Queue queue = createQueue();
+      Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      MessageProducer producer = session.createProducer(queue);
+      producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+
+      int numberOfMessages = 1000;
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         producer.send(session.createTextMessage("msg:" + i));
+      }
+
+      MessageConsumer consumer = session.createConsumer(queue);
+      for (int i = 0; i < numberOfMessages; i++)
+      {
+         TextMessage m = (TextMessage) consumer.receive(5000);
+         Assert.assertNotNull("Could not receive message " + i, m);
+         Assert.assertEquals("msg:" + i, m.getText());
+      }
+   }
+}
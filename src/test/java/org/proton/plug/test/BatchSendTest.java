@@ -0,0 +1,132 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.codec.WritableBuffer;
+import org.apache.qpid.proton.message.ProtonJMessage;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.context.client.ProtonClientContext;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+
+/**
+ * Messages sent as a list take the credits in bulk, and a failure in the middle gives back what wasn't sent
+ * @author Clebert Suconic
+ */
+public class BatchSendTest extends SimpleServerAbstractTest
+{
+   public BatchSendTest()
+   {
+      super(false, false);
+   }
+
+   @Test
+   public void testSendList() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      ProtonClientContext sender = (ProtonClientContext) session.createSender("BatchSend", false);
+
+      List<ProtonJMessage> messages = new ArrayList<>();
+      for (int i = 0; i < 100; i++)
+      {
+         messages.add(createMessage(i));
+      }
+      sender.send(messages);
+      Assert.assertTrue(sender.sync(5, TimeUnit.SECONDS));
+
+      receive(session, 100);
+   }
+
+   @Test
+   public void testEncodeFailure() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      ProtonClientContext sender = (ProtonClientContext) session.createSender("BatchSend", false);
+
+      List<ProtonJMessage> messages = new ArrayList<>();
+      messages.add(createMessage(0));
+      messages.add(createMessage(1));
+      messages.add(new MessageImpl()
+      {
+         @Override
+         public int encode(WritableBuffer buffer)
+         {
+            throw new IllegalStateException("can't encode this one");
+         }
+      });
+      messages.add(createMessage(3));
+
+      try
+      {
+         sender.send(messages);
+         Assert.fail("the third message should fail");
+      }
+      catch (IllegalStateException expected)
+      {
+      }
+
+      // only the ones sent are waited on
+      Assert.assertTrue(sender.sync(5, TimeUnit.SECONDS));
+
+      // and the credits of the others were given back
+      messages.clear();
+      for (int i = 0; i < 10; i++)
+      {
+         messages.add(createMessage(i));
+      }
+      sender.send(messages);
+      Assert.assertTrue(sender.sync(5, TimeUnit.SECONDS));
+
+      receive(session, 12);
+   }
+
+   private static void receive(AMQPClientSessionContext session, int count) throws Exception
+   {
+      AMQPClientReceiverContext receiver = session.createReceiver("BatchSend");
+      receiver.flow(count);
+      for (int i = 0; i < count; i++)
+      {
+         Assert.assertNotNull("Could not receive message " + i, receiver.receiveMessage(5, TimeUnit.SECONDS));
+      }
+      Assert.assertNull(receiver.receiveMessage(100, TimeUnit.MILLISECONDS));
+   }
+
+   private static MessageImpl createMessage(int i)
+   {
+      MessageImpl message = new MessageImpl();
+      message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+      return message;
+   }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.context.client.ProtonClientReceiverContext;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+
+/**
+ * The client receiver settles what it receives, so its deliveries don't pile up on the link
+ * @author Clebert Suconic
+ */
+public class ClientSettleTest extends SimpleServerAbstractTest
+{
+   private static final int NUMBER_OF_MESSAGES = 100;
+
+   public ClientSettleTest()
+   {
+      super(false, false);
+   }
+
+   @Test
+   public void testSettleOnReceive() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("ClientSettle", true);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+         sender.send(message);
+      }
+
+      AMQPClientReceiverContext receiver = session.createReceiver("ClientSettle");
+      receiver.flow(NUMBER_OF_MESSAGES);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         Assert.assertNotNull("Could not receive message " + i, receiver.receiveMessage(5, TimeUnit.SECONDS));
+      }
+
+      // a message is only given to the client after its delivery was settled
+      Assert.assertEquals(0, ((ProtonClientReceiverContext) receiver).getReceiver().getUnsettled());
+   }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.context.server.ProtonServerSenderContext;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.minimalserver.MinimalSessionSPI;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+
+/**
+ * The server connections are pinned to an executor, so the deliveries are sent from it
+ * @author Clebert Suconic
+ */
+public class ExecutorSendTest extends SimpleServerAbstractTest
+{
+   private static final int NUMBER_OF_MESSAGES = 5;
+
+   private final GateExecutor executor = new GateExecutor();
+
+   public ExecutorSendTest()
+   {
+      super(false, false);
+      server.setConnectionExecutor(executor);
+   }
+
+   @Test
+   public void testDeliverOnExecutor() throws Throwable
+   {
+      AMQPClientSessionContext session = createSession();
+      send(session, "ExecutorSend");
+
+      AMQPClientReceiverContext receiver = session.createReceiver("ExecutorSend");
+      receiver.flow(NUMBER_OF_MESSAGES);
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         Assert.assertNotNull("Could not receive message " + i, receiver.receiveMessage(5, TimeUnit.SECONDS));
+      }
+   }
+
+   @Test
+   public void testCancelWhenClosed() throws Throwable
+   {
+      AMQPClientSessionContext session = createSession();
+      send(session, "ExecutorCancel");
+
+      MinimalSessionSPI.cancelledMessages.set(0);
+      executor.hold();
+
+      AMQPClientReceiverContext receiver = session.createReceiver("ExecutorCancel");
+      receiver.flow(NUMBER_OF_MESSAGES);
+
+      // the broker delivered them all, but they are still waiting on the executor
+      long timeout = System.currentTimeMillis() + 5000;
+      while (executor.getHeld() < NUMBER_OF_MESSAGES && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(NUMBER_OF_MESSAGES, executor.getHeld());
+
+      ((ProtonServerSenderContext) MinimalSessionSPI.lastSender).close();
+      executor.release();
+
+      timeout = System.currentTimeMillis() + 5000;
+      while (MinimalSessionSPI.cancelledMessages.get() < NUMBER_OF_MESSAGES && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+
+      // none was sent, and the broker got them all back
+      Assert.assertEquals(NUMBER_OF_MESSAGES, MinimalSessionSPI.cancelledMessages.get());
+      Assert.assertNull(receiver.receiveMessage(100, TimeUnit.MILLISECONDS));
+   }
+
+   private AMQPClientSessionContext createSession() throws Exception
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+      return clientConnection.createClientSession();
+   }
+
+   private static void send(AMQPClientSessionContext session, String address) throws Exception
+   {
+      AMQPClientSenderContext sender = session.createSender(address, true);
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+         sender.send(message);
+      }
+   }
+
+   /**
+    * It can hold the tasks, so they are run only after something else happened
+    */
+   private static class GateExecutor implements Executor
+   {
+      private final ExecutorService delegate = Executors.newSingleThreadExecutor();
+
+      private final List<Runnable> held = new ArrayList<>();
+
+      private boolean holding;
+
+      public synchronized void execute(Runnable task)
+      {
+         if (holding)
+         {
+            held.add(task);
+         }
+         else
+         {
+            delegate.execute(task);
+         }
+      }
+
+      synchronized void hold()
+      {
+         holding = true;
+      }
+
+      synchronized int getHeld()
+      {
+         return held.size();
+      }
+
+      synchronized void release()
+      {
+         holding = false;
+         for (Runnable task : held)
+         {
+            delegate.execute(task);
+         }
+         held.clear();
+      }
+   }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.AMQPConnectionOptions;
+import org.proton.plug.context.AbstractConnectionContext;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.minimalserver.MinimalSessionSPI;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+import org.proton.plug.util.FileChunkedBody;
+
+/**
+ * Large messages are streamed in chunks, by the server as they arrive and by the client from a file
+ * @author Clebert Suconic
+ */
+public class LargeMessageStreamingTest extends SimpleServerAbstractTest
+{
+   private static final int MESSAGE_SIZE = 1024 * 1024 + 17;
+
+   private static final int NUMBER_OF_MESSAGES = 10;
+
+   public LargeMessageStreamingTest()
+   {
+      super(false, false);
+      server.setOptions(new AMQPConnectionOptions().setMaxFrameSize(16 * 1024).setStreamingChunkSize(64 * 1024));
+   }
+
+   @Test
+   public void testStreamLargeMessages() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("Test", true);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(createBody(i))));
+         sender.send(message);
+      }
+
+      // small messages should still go through the regular path
+      MessageImpl small = (MessageImpl) Message.Factory.create();
+      small.setBody(new Data(new Binary(new byte[]{1, 2, 3})));
+      sender.send(small);
+
+      AMQPClientReceiverContext receiver = session.createReceiver("Test");
+      receiver.flow(NUMBER_OF_MESSAGES + 1);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+         Assert.assertNotNull("Could not receive message " + i, m);
+         Binary body = ((Data) m.getBody()).getValue();
+         Assert.assertEquals(MESSAGE_SIZE, body.getLength());
+         Assert.assertEquals(new Binary(createBody(i)), body);
+      }
+
+      MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(m);
+      Assert.assertEquals(3, ((Data) m.getBody()).getValue().getLength());
+   }
+
+   @Test
+   public void testFailureOnLastChunk() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("Test", true);
+
+      MinimalSessionSPI.failNextLastChunk.set(true);
+
+      // the first one is rejected after it fully arrived, the ones after it have to go through
+      for (int i = 0; i < 3; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(createBody(i))));
+         sender.send(message);
+      }
+
+      MessageImpl small = (MessageImpl) Message.Factory.create();
+      small.setBody(new Data(new Binary(new byte[]{1, 2, 3})));
+      sender.send(small);
+
+      AMQPClientReceiverContext receiver = session.createReceiver("Test");
+      receiver.flow(4);
+
+      for (int i = 1; i < 3; i++)
+      {
+         MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+         Assert.assertNotNull("Could not receive message " + i, m);
+         Assert.assertEquals(new Binary(createBody(i)), ((Data) m.getBody()).getValue());
+      }
+
+      MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(m);
+      Assert.assertEquals(3, ((Data) m.getBody()).getValue().getLength());
+
+      Assert.assertNull(receiver.receiveMessage(100, TimeUnit.MILLISECONDS));
+      Assert.assertFalse(MinimalSessionSPI.failNextLastChunk.get());
+   }
+
+   @Test
+   public void testSendFileBody() throws Throwable
+   {
+      File file = File.createTempFile("large-message", ".body");
+      file.deleteOnExit();
+      byte[] content = createBody(3);
+      try (FileOutputStream output = new FileOutputStream(file))
+      {
+         output.write(content);
+      }
+
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("Test", true);
+
+      try (FileChannel channel = new RandomAccessFile(file, "r").getChannel())
+      {
+         for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+         {
+            MessageImpl message = (MessageImpl) Message.Factory.create();
+            message.setAddress("Test");
+            sender.send(message, new FileChunkedBody(channel, 0, content.length));
+         }
+      }
+
+      AMQPClientReceiverContext receiver = session.createReceiver("Test");
+      receiver.flow(NUMBER_OF_MESSAGES);
+
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+         Assert.assertNotNull("Could not receive message " + i, m);
+         Assert.assertEquals("Test", m.getAddress());
+         Assert.assertEquals(new Binary(content), ((Data) m.getBody()).getValue());
+      }
+   }
+
+   @Test
+   public void testConcurrentStreams() throws Throwable
+   {
+      doTestConcurrentStreams(false);
+   }
+
+   @Test
+   public void testConcurrentStreamsOnExecutor() throws Throwable
+   {
+      doTestConcurrentStreams(true);
+   }
+
+   /**
+    * Two threads streaming on the same sender, with small messages in between
+    */
+   private void doTestConcurrentStreams(boolean useExecutor) throws Throwable
+   {
+      final File file = File.createTempFile("large-message", ".body");
+      file.deleteOnExit();
+      final byte[] content = createBody(5);
+      try (FileOutputStream output = new FileOutputStream(file))
+      {
+         output.write(content);
+      }
+
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      if (useExecutor)
+      {
+         clientConnection.setExecutor(executor);
+      }
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      final AMQPClientSenderContext sender = session.createSender("Test", true);
+
+      final int messagesPerThread = 3;
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      Thread[] threads = new Thread[2];
+      for (int t = 0; t < threads.length; t++)
+      {
+         threads[t] = new Thread()
+         {
+            public void run()
+            {
+               try (FileChannel channel = new RandomAccessFile(file, "r").getChannel())
+               {
+                  for (int i = 0; i < messagesPerThread; i++)
+                  {
+                     MessageImpl message = (MessageImpl) Message.Factory.create();
+                     sender.send(message, new FileChunkedBody(channel, 0, content.length));
+
+                     MessageImpl small = (MessageImpl) Message.Factory.create();
+                     small.setBody(new Data(new Binary(new byte[]{1, 2, 3})));
+                     sender.send(small);
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+            }
+         };
+         threads[t].start();
+      }
+
+      for (Thread thread : threads)
+      {
+         thread.join(30000);
+         Assert.assertFalse(thread.isAlive());
+      }
+      Assert.assertNull(error.get());
+
+      int total = threads.length * messagesPerThread * 2;
+      AMQPClientReceiverContext receiver = session.createReceiver("Test");
+      receiver.flow(total);
+
+      int large = 0;
+      for (int i = 0; i < total; i++)
+      {
+         MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+         Assert.assertNotNull("Could not receive message " + i, m);
+         Binary body = ((Data) m.getBody()).getValue();
+         if (body.getLength() != 3)
+         {
+            Assert.assertEquals(new Binary(content), body);
+            large++;
+         }
+      }
+
+      Assert.assertEquals(threads.length * messagesPerThread, large);
+      executor.shutdown();
+   }
+
+   @Test
+   public void testStreamFromExecutorTask() throws Throwable
+   {
+      final File file = File.createTempFile("large-message", ".body");
+      file.deleteOnExit();
+      final byte[] content = createBody(7);
+      try (FileOutputStream output = new FileOutputStream(file))
+      {
+         output.write(content);
+      }
+
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      clientConnection.setExecutor(executor);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      final AMQPClientSenderContext sender = session.createSender("Test", true);
+
+      // the listener runs on the executor, streaming from there would wait on itself forever
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      ((AbstractConnectionContext) clientConnection).onNextOutput(new Runnable()
+      {
+         public void run()
+         {
+            try (FileChannel channel = new RandomAccessFile(file, "r").getChannel())
+            {
+               sender.send((MessageImpl) Message.Factory.create(), new FileChunkedBody(channel, 0, content.length));
+            }
+            catch (Throwable e)
+            {
+               error.set(e);
+            }
+            done.countDown();
+         }
+      });
+
+      MessageImpl small = (MessageImpl) Message.Factory.create();
+      small.setBody(new Data(new Binary(new byte[]{1, 2, 3})));
+      sender.send(small);
+
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertTrue(String.valueOf(error.get()), error.get() instanceof IllegalStateException);
+
+      // the link is still usable from any other thread
+      try (FileChannel channel = new RandomAccessFile(file, "r").getChannel())
+      {
+         sender.send((MessageImpl) Message.Factory.create(), new FileChunkedBody(channel, 0, content.length));
+      }
+
+      AMQPClientReceiverContext receiver = session.createReceiver("Test");
+      receiver.flow(2);
+
+      MessageImpl m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(m);
+      Assert.assertEquals(3, ((Data) m.getBody()).getValue().getLength());
+
+      m = (MessageImpl) receiver.receiveMessage(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(m);
+      Assert.assertEquals(new Binary(content), ((Data) m.getBody()).getValue());
+
+      executor.shutdown();
+   }
+
+   private static byte[] createBody(int seed)
+   {
+      byte[] body = new byte[MESSAGE_SIZE];
+      for (int i = 0; i < body.length; i++)
+      {
+         body[i] = (byte) (i + seed);
+      }
+      return body;
+   }
+}
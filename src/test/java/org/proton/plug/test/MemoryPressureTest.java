@@ -0,0 +1,91 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.util.concurrent.BlockingDeque;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.minimalserver.DumbServer;
+import org.proton.plug.test.minimalserver.MinimalSessionSPI;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+import org.proton.plug.util.AdaptiveCreditPolicy;
+
+/**
+ * The minimal server uses the default credit policy, and memory pressure still stops the producers
+ * @author Clebert Suconic
+ */
+public class MemoryPressureTest extends SimpleServerAbstractTest
+{
+   private static final int NUMBER_OF_MESSAGES = AdaptiveCreditPolicy.DEFAULT_INITIAL_CREDITS + 50;
+
+   public MemoryPressureTest()
+   {
+      super(false, false);
+   }
+
+   @Test
+   public void testMemoryPressure() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      final AMQPClientSenderContext sender = session.createSender("MemoryPressure", true);
+
+      MinimalSessionSPI.lastSession.setMemoryPressure(true);
+
+      Thread producer = new Thread()
+      {
+         public void run()
+         {
+            for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+            {
+               MessageImpl message = (MessageImpl) Message.Factory.create();
+               message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+               sender.send(message);
+            }
+         }
+      };
+      producer.start();
+
+      // only the initial credits could be used
+      producer.join(1000);
+      Assert.assertTrue(producer.isAlive());
+      BlockingDeque<Object> queue = DumbServer.getQueue("MemoryPressure");
+      Assert.assertEquals(AdaptiveCreditPolicy.DEFAULT_INITIAL_CREDITS, queue.size());
+
+      MinimalSessionSPI.lastSession.setMemoryPressure(false);
+
+      producer.join(5000);
+      Assert.assertFalse(producer.isAlive());
+
+      long timeout = System.currentTimeMillis() + 5000;
+      while (queue.size() < NUMBER_OF_MESSAGES && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(NUMBER_OF_MESSAGES, queue.size());
+   }
+}
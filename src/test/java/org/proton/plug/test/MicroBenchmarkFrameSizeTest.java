@@ -0,0 +1,137 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.AMQPConnectionOptions;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+
+/**
+ * It will show the effect of the max frame size on the throughput of large messages
+ * @author Clebert Suconic
+ */
+@RunWith(Parameterized.class)
+public class MicroBenchmarkFrameSizeTest extends SimpleServerAbstractTest
+{
+   private static final int MESSAGE_SIZE = 1024 * 1024;
+
+   private static final int NUMBER_OF_MESSAGES = 200;
+
+   final int timeout = 5;
+
+   private final AMQPConnectionOptions options;
+
+   @Parameterized.Parameters(name = "maxFrameSize={0}")
+   public static Collection<Object[]> data()
+   {
+      List<Object[]> list = Arrays.asList(new Object[][]{
+         {4 * 1024},
+         {16 * 1024},
+         {AMQPConnectionOptions.DEFAULT_MAX_FRAME_SIZE},
+         {1024 * 1024}});
+
+      return list;
+   }
+
+   public MicroBenchmarkFrameSizeTest(int maxFrameSize)
+   {
+      super(false, false);
+      options = new AMQPConnectionOptions().setMaxFrameSize(maxFrameSize);
+      server.setOptions(options);
+   }
+
+   @Test
+   public void testLargeMessages() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector(options);
+      connector.start();
+      final AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      final AMQPClientConnectionContext connectionConsumer = connector.connect("127.0.0.1", Constants.PORT);
+      connectionConsumer.clientOpen(null);
+
+      final ArrayList<Throwable> exceptions = new ArrayList<>();
+
+      long time = System.currentTimeMillis();
+
+      Thread t = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               AMQPClientSessionContext sessionConsumer = connectionConsumer.createClientSession();
+               AMQPClientReceiverContext receiver = sessionConsumer.createReceiver("Test");
+               receiver.flow(NUMBER_OF_MESSAGES);
+
+               for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+               {
+                  MessageImpl m = (MessageImpl) receiver.receiveMessage(timeout, TimeUnit.SECONDS);
+                  Assert.assertNotNull("Could not receive message " + i + " on consumer", m);
+                  Assert.assertEquals(MESSAGE_SIZE, ((Data) m.getBody()).getValue().getLength());
+               }
+            }
+            catch (Throwable e)
+            {
+               exceptions.add(e);
+               e.printStackTrace();
+            }
+         }
+      });
+
+      t.start();
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("Test", true);
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(new byte[MESSAGE_SIZE])));
+         sender.send(message);
+      }
+
+      t.join();
+
+      for (Throwable e : exceptions)
+      {
+         throw e;
+      }
+
+      long taken = System.currentTimeMillis() - time;
+      double megabytesPerSecond = ((double) NUMBER_OF_MESSAGES * MESSAGE_SIZE / (1024 * 1024)) / ((double) taken / 1000);
+      System.out.println("maxFrameSize=" + options.getMaxFrameSize() + ": " + NUMBER_OF_MESSAGES + " messages of " +
+                            MESSAGE_SIZE + " bytes in " + taken + " milliseconds, " + (int) megabytesPerSecond + " MiB/second");
+   }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientSenderContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.AMQPConnectionOptions;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.minimalserver.DumbServer;
+import org.proton.plug.test.minimalserver.MinimalSessionSPI;
+import org.proton.plug.test.util.SimpleServerAbstractTest;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * serverSend runs on the link's executor, and a message the executor rejected is rejected without stopping the link
+ * @author Clebert Suconic
+ */
+public class ServerSendExecutorTest extends SimpleServerAbstractTest
+{
+   private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+   private final AtomicInteger rejections = new AtomicInteger(0);
+
+   public ServerSendExecutorTest()
+   {
+      super(false, false);
+      server.setOptions(new AMQPConnectionOptions().setMaxFrameSize(16 * 1024).setStreamingChunkSize(16 * 1024).setServerSendExecutor(new Executor()
+      {
+         public void execute(Runnable command)
+         {
+            if (rejections.getAndDecrement() > 0)
+            {
+               throw new RejectedExecutionException("rejecting on purpose");
+            }
+            pool.execute(command);
+         }
+      }));
+   }
+
+   @After
+   public void shutdownPool()
+   {
+      MinimalSessionSPI.chunkGate = null;
+      MinimalSessionSPI.gatedDelivery = null;
+      pool.shutdown();
+   }
+
+   @Test
+   public void testRejectedByExecutor() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("ServerSendExecutor", true);
+
+      rejections.set(1);
+      send(sender, 1);
+
+      // more than the initial credits, so the link has to keep flowing after the rejection
+      int numberOfMessages = 500;
+      send(sender, numberOfMessages);
+
+      BlockingDeque<?> queue = DumbServer.getQueue("ServerSendExecutor");
+      long timeout = System.currentTimeMillis() + 5000;
+      while (queue.size() < numberOfMessages && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(numberOfMessages, queue.size());
+   }
+
+   @Test
+   public void testSlowChunks() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      AMQPClientSenderContext sender = session.createSender("SlowChunks", true);
+
+      CountDownLatch gate = new CountDownLatch(1);
+      MinimalSessionSPI.chunkGate = gate;
+
+      int size = 1024 * 1024;
+      MessageImpl message = (MessageImpl) Message.Factory.create();
+      message.setBody(new Data(new Binary(new byte[size])));
+      sender.send(message);
+
+      long timeout = System.currentTimeMillis() + 5000;
+      while (MinimalSessionSPI.gatedDelivery == null && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      Delivery delivery = MinimalSessionSPI.gatedDelivery;
+      Assert.assertNotNull(delivery);
+
+      // plenty of time for the rest of the message to arrive
+      Thread.sleep(500);
+
+      // the receiver stopped reading while the broker is stuck, the rest is still on Proton and not on chunks queued up
+      Assert.assertTrue(delivery.pending() > 0);
+
+      MinimalSessionSPI.chunkGate = null;
+      gate.countDown();
+
+      BlockingDeque<?> queue = DumbServer.getQueue("SlowChunks");
+      timeout = System.currentTimeMillis() + 5000;
+      while (queue.isEmpty() && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      Assert.assertEquals(1, queue.size());
+      ProtonServerMessage received = (ProtonServerMessage) queue.poll();
+      Assert.assertEquals(size, ((Data) received.getBody()).getValue().getLength());
+   }
+
+   private static void send(AMQPClientSenderContext sender, int count)
+   {
+      for (int i = 0; i < count; i++)
+      {
+         MessageImpl message = (MessageImpl) Message.Factory.create();
+         message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+         sender.send(message);
+      }
+   }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.proton.plug.context.IdleTimeoutManager;
+
+/**
+ * The wheel is advanced by hand here, with a fake clock
+ * @author Clebert Suconic
+ */
+public class IdleTimeoutManagerTest
+{
+   private static final long TICK = 100;
+
+   private static final int SLOTS = 8;
+
+   private final QueueExecutor managerExecutor = new QueueExecutor();
+
+   private IdleTimeoutManager manager;
+
+   private long now;
+
+   @Before
+   public void setUp()
+   {
+      manager = new IdleTimeoutManager(TICK, SLOTS, managerExecutor, false);
+      now = 1000000;
+   }
+
+   @Test
+   public void testRounds()
+   {
+      FakeConnection connection = new FakeConnection();
+      // half of the idle timeout is 20 ticks, more than twice around the wheel
+      manager.register(connection, 4000, now);
+
+      advance(19);
+      Assert.assertEquals(0, connection.ticks);
+
+      advance(1);
+      Assert.assertEquals(1, connection.ticks);
+      Assert.assertEquals(now, connection.lastTick);
+   }
+
+   @Test
+   public void testCancel()
+   {
+      FakeConnection connection = new FakeConnection();
+      IdleTimeoutManager.Entry entry = manager.register(connection, 1000, now);
+      Assert.assertTrue(manager.isScheduled(entry));
+
+      manager.unregister(entry);
+      Assert.assertFalse(manager.isScheduled(entry));
+
+      advance(SLOTS * 3);
+      Assert.assertEquals(0, connection.ticks);
+   }
+
+   @Test
+   public void testReschedule()
+   {
+      FakeConnection connection = new FakeConnection();
+      IdleTimeoutManager.Entry entry = manager.register(connection, 1000, now);
+
+      // the transport wants to be ticked again in 3 ticks
+      connection.nextDeadline = 300;
+      advance(5);
+      Assert.assertEquals(1, connection.ticks);
+      Assert.assertTrue(manager.isScheduled(entry));
+
+      advance(2);
+      Assert.assertEquals(1, connection.ticks);
+      advance(1);
+      Assert.assertEquals(2, connection.ticks);
+   }
+
+   @Test
+   public void testKeepAlive()
+   {
+      FakeConnection connection = new FakeConnection();
+      manager.register(connection, 1000, now);
+
+      // with no deadline from the transport it goes on every half of the idle timeout
+      for (int i = 1; i <= 4; i++)
+      {
+         advance(5);
+         Assert.assertEquals(i, connection.ticks);
+      }
+   }
+
+   @Test
+   public void testClose()
+   {
+      FakeConnection connection = new FakeConnection();
+      IdleTimeoutManager.Entry entry = manager.register(connection, 1000, now);
+
+      // the peer was dead
+      connection.nextDeadline = -1;
+      advance(5);
+      Assert.assertEquals(1, connection.ticks);
+      Assert.assertFalse(manager.isScheduled(entry));
+
+      advance(SLOTS * 3);
+      Assert.assertEquals(1, connection.ticks);
+   }
+
+   @Test
+   public void testConnectionExecutor()
+   {
+      FakeConnection connection = new FakeConnection();
+      connection.executor = new QueueExecutor();
+      IdleTimeoutManager.Entry entry = manager.register(connection, 1000, now);
+
+      manager.advance(now += 5 * TICK);
+      for (int i = 0; i < 4; i++)
+      {
+         manager.advance(now += TICK);
+      }
+
+      // the timer doesn't tick it, the connection's executor does
+      Assert.assertEquals(0, connection.ticks);
+      Assert.assertFalse(manager.isScheduled(entry));
+      Assert.assertEquals(0, managerExecutor.tasks.size());
+      Assert.assertEquals(1, connection.executor.tasks.size());
+
+      connection.executor.runAll();
+      Assert.assertEquals(1, connection.ticks);
+      Assert.assertTrue(manager.isScheduled(entry));
+   }
+
+   @Test
+   public void testRejectedExecutor()
+   {
+      FakeConnection connection = new FakeConnection();
+      connection.executor = new QueueExecutor();
+      connection.executor.rejecting = true;
+      IdleTimeoutManager.Entry entry = manager.register(connection, 1000, now);
+
+      // the connection's executor is gone, the manager's pool ticks it and not the thread advancing the wheel
+      for (int i = 0; i < 5; i++)
+      {
+         manager.advance(now += TICK);
+      }
+      Assert.assertEquals(0, connection.ticks);
+      Assert.assertEquals(1, managerExecutor.tasks.size());
+
+      managerExecutor.runAll();
+      Assert.assertEquals(1, connection.ticks);
+      Assert.assertTrue(manager.isScheduled(entry));
+
+      // nowhere to tick it, it stays on the wheel for its next round
+      managerExecutor.rejecting = true;
+      for (int i = 0; i < 5; i++)
+      {
+         manager.advance(now += TICK);
+      }
+      Assert.assertEquals(1, connection.ticks);
+      Assert.assertTrue(manager.isScheduled(entry));
+
+      managerExecutor.rejecting = false;
+      advance(5);
+      Assert.assertEquals(2, connection.ticks);
+   }
+
+   private void advance(int ticks)
+   {
+      for (int i = 0; i < ticks; i++)
+      {
+         now += TICK;
+         manager.advance(now);
+         managerExecutor.runAll();
+      }
+   }
+
+   private static class FakeConnection implements IdleTimeoutManager.Tickable
+   {
+      int ticks;
+
+      long lastTick;
+
+      // relative to the tick, 0 for no deadline
+      long nextDeadline;
+
+      QueueExecutor executor;
+
+      public long tick(long now)
+      {
+         ticks++;
+         lastTick = now;
+         return nextDeadline <= 0 ? nextDeadline : now + nextDeadline;
+      }
+
+      public Executor getExecutor()
+      {
+         return executor;
+      }
+   }
+
+   private static class QueueExecutor implements Executor
+   {
+      final List<Runnable> tasks = new ArrayList<>();
+
+      boolean rejecting;
+
+      public void execute(Runnable command)
+      {
+         if (rejecting)
+         {
+            throw new RejectedExecutionException();
+         }
+         tasks.add(command);
+      }
+
+      void runAll()
+      {
+         List<Runnable> copy = new ArrayList<>(tasks);
+         tasks.clear();
+         for (Runnable task : copy)
+         {
+            task.run();
+         }
+      }
+   }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.qpid.proton.engine.Transport;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.handler.impl.DefaultEventHandler;
+import org.proton.plug.handler.impl.ProtonHandlerImpl;
+
+/**
+ * The Transport is made full so the handler holds the input, then it takes it on a flush
+ * before or after the reader stopped reading
+ * @author Clebert Suconic
+ */
+public class InputBackpressureTest
+{
+   private static final byte[] AMQP_HEADER = new byte[]{'A', 'M', 'Q', 'P', 0, 1, 0, 0};
+
+   static class FullHandler extends ProtonHandlerImpl
+   {
+      volatile boolean full = true;
+
+      @Override
+      protected int inputCapacity()
+      {
+         return full ? 0 : super.inputCapacity();
+      }
+   }
+
+   static class CapacityCounter extends DefaultEventHandler
+   {
+      final AtomicInteger calls = new AtomicInteger(0);
+
+      @Override
+      public void onInputCapacity(Transport transport) throws Exception
+      {
+         calls.incrementAndGet();
+      }
+   }
+
+   private FullHandler handler;
+
+   private CapacityCounter counter;
+
+   private void fill()
+   {
+      handler = new FullHandler();
+      counter = new CapacityCounter();
+      handler.addEventHandler(counter);
+
+      ByteBuf input = Unpooled.wrappedBuffer(AMQP_HEADER);
+      Assert.assertFalse(handler.inputBuffer(input));
+      Assert.assertTrue(handler.isInputBlocked());
+      Assert.assertEquals(0, input.readableBytes());
+   }
+
+   @Test
+   public void testResumeAfterPause() throws Exception
+   {
+      fill();
+
+      Assert.assertTrue(handler.inputPaused());
+
+      // still full, nothing happens
+      handler.flush();
+      Assert.assertTrue(handler.isInputBlocked());
+      Assert.assertEquals(0, counter.calls.get());
+
+      handler.full = false;
+      handler.flush();
+
+      Assert.assertFalse(handler.isInputBlocked());
+      Assert.assertEquals(1, counter.calls.get());
+
+      handler.flush();
+      Assert.assertEquals(1, counter.calls.get());
+   }
+
+   @Test
+   public void testResumeBeforePause() throws Exception
+   {
+      fill();
+
+      // a flush from another thread takes the bytes before the reader stopped
+      handler.full = false;
+      handler.flush();
+      Assert.assertFalse(handler.isInputBlocked());
+      Assert.assertEquals(0, counter.calls.get());
+
+      // so the reader is told to keep going, as nobody else will
+      Assert.assertFalse(handler.inputPaused());
+      Assert.assertEquals(0, counter.calls.get());
+   }
+
+   @Test
+   public void testConcurrentResume() throws Exception
+   {
+      for (int i = 0; i < 1000; i++)
+      {
+         fill();
+
+         Thread flusher = new Thread()
+         {
+            public void run()
+            {
+               handler.full = false;
+               handler.flush();
+            }
+         };
+         flusher.start();
+
+         boolean stopped = handler.inputPaused();
+         flusher.join();
+
+         // either the reader kept going or it was told to, never both and never none
+         Assert.assertFalse(handler.isInputBlocked());
+         Assert.assertEquals(stopped ? 1 : 0, counter.calls.get());
+      }
+   }
+}
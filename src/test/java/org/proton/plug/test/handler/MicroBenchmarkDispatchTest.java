@@ -0,0 +1,142 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.handler;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.qpid.proton.engine.Connection;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Event;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.handler.EventHandler;
+import org.proton.plug.handler.Events;
+import org.proton.plug.handler.impl.DefaultEventHandler;
+import org.proton.plug.handler.impl.DispatchTable;
+
+/**
+ * It will compare calling every handler for every event against the dispatch by interest
+ * @author Clebert Suconic
+ */
+public class MicroBenchmarkDispatchTest
+{
+   private static final int STACKED_HANDLERS = 5;
+
+   private static final int ITERATIONS = 10000000;
+
+   static class DeliveryCounter extends DefaultEventHandler
+   {
+      long deliveries;
+
+      @Override
+      public Set<Event.Type> getInterests()
+      {
+         return EnumSet.of(Event.Type.DELIVERY);
+      }
+
+      @Override
+      public void onDelivery(Delivery delivery) throws Exception
+      {
+         deliveries++;
+      }
+   }
+
+   static class ConnectionCounter extends DefaultEventHandler
+   {
+      long opens;
+
+      @Override
+      public Set<Event.Type> getInterests()
+      {
+         return EnumSet.of(Event.Type.CONNECTION_REMOTE_OPEN);
+      }
+
+      @Override
+      public void onRemoteOpen(Connection connection) throws Exception
+      {
+         opens++;
+      }
+   }
+
+   @Test
+   public void testInterests() throws Exception
+   {
+      DispatchTable table = new DispatchTable();
+      DeliveryCounter deliveryCounter = new DeliveryCounter();
+      ConnectionCounter connectionCounter = new ConnectionCounter();
+      DefaultEventHandler everything = new DefaultEventHandler();
+      table.add(deliveryCounter);
+      table.add(connectionCounter);
+      table.add(everything);
+
+      Assert.assertEquals(3, table.getHandlers().length);
+      Assert.assertArrayEquals(new EventHandler[]{deliveryCounter, everything}, table.getHandlers(Event.Type.DELIVERY));
+      Assert.assertArrayEquals(new EventHandler[]{connectionCounter, everything}, table.getHandlers(Event.Type.CONNECTION_REMOTE_OPEN));
+      Assert.assertArrayEquals(new EventHandler[]{everything}, table.getHandlers(Event.Type.LINK_FLOW));
+   }
+
+   @Test
+   public void testDispatchCost() throws Exception
+   {
+      DispatchTable table = new DispatchTable();
+      DeliveryCounter deliveryCounter = new DeliveryCounter();
+      table.add(deliveryCounter);
+      for (int i = 0; i < STACKED_HANDLERS; i++)
+      {
+         table.add(new ConnectionCounter());
+      }
+
+      // warming up both paths
+      dispatchAll(table, ITERATIONS / 10);
+      dispatchByInterest(table, ITERATIONS / 10);
+      deliveryCounter.deliveries = 0;
+
+      long time = System.nanoTime();
+      dispatchAll(table, ITERATIONS);
+      long takenAll = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      dispatchByInterest(table, ITERATIONS);
+      long takenInterest = System.nanoTime() - time;
+
+      Assert.assertEquals(ITERATIONS * 2, deliveryCounter.deliveries);
+
+      System.out.println("Dispatching " + ITERATIONS + " deliveries with " + (STACKED_HANDLERS + 1) + " handlers");
+      System.out.println("every handler: " + ((double) takenAll / ITERATIONS) + " ns per event");
+      System.out.println("by interest: " + ((double) takenInterest / ITERATIONS) + " ns per event");
+   }
+
+   private void dispatchAll(DispatchTable table, int iterations) throws Exception
+   {
+      for (int i = 0; i < iterations; i++)
+      {
+         for (EventHandler h : table.getHandlers())
+         {
+            Events.dispatch(Event.Type.DELIVERY, null, h);
+         }
+      }
+   }
+
+   private void dispatchByInterest(DispatchTable table, int iterations) throws Exception
+   {
+      for (int i = 0; i < iterations; i++)
+      {
+         for (EventHandler h : table.getHandlers(Event.Type.DELIVERY))
+         {
+            Events.dispatch(Event.Type.DELIVERY, null, h);
+         }
+      }
+   }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.handler;
+
+import java.lang.management.ManagementFactory;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.qpid.proton.engine.Receiver;
+import org.apache.qpid.proton.engine.Session;
+import org.apache.qpid.proton.engine.Transport;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.proton.plug.handler.ProtonHandler;
+import org.proton.plug.handler.impl.DefaultEventHandler;
+
+/**
+ * It will measure the bytes allocated by the drain and the dispatch of the events.
+ * The same work is done with one handler and with a stack of them, the Proton work is the same on both
+ * so any difference comes from the dispatch
+ * @author Clebert Suconic
+ */
+public class MicroBenchmarkDrainTest
+{
+   private static final int STACKED_HANDLERS = 5;
+
+   private static final int EVENTS_PER_FLUSH = 32;
+
+   private static final int ITERATIONS = 20000;
+
+   static class TransportCounter extends DefaultEventHandler
+   {
+      long transports;
+
+      @Override
+      public void onTransport(Transport transport) throws Exception
+      {
+         transports++;
+      }
+   }
+
+   static class Flows
+   {
+      final ProtonHandler handler = ProtonHandler.Factory.create();
+
+      final TransportCounter counter = new TransportCounter();
+
+      final Receiver receiver;
+
+      Flows(int extraHandlers)
+      {
+         handler.setZeroCopyOutput(true);
+         handler.addEventHandler(counter);
+         for (int i = 0; i < extraHandlers; i++)
+         {
+            handler.addEventHandler(new DefaultEventHandler());
+         }
+
+         synchronized (handler.getLock())
+         {
+            handler.getConnection().open();
+            Session session = handler.getConnection().session();
+            session.open();
+            receiver = session.receiver("drain");
+            receiver.open();
+         }
+         handler.flush();
+         drainOutput();
+      }
+
+      void run(int iterations)
+      {
+         for (int i = 0; i < iterations; i++)
+         {
+            synchronized (handler.getLock())
+            {
+               for (int e = 0; e < EVENTS_PER_FLUSH; e++)
+               {
+                  receiver.flow(1);
+               }
+            }
+            handler.flush();
+            drainOutput();
+         }
+      }
+
+      void drainOutput()
+      {
+         ByteBuf output;
+         while ((output = handler.outputBuffer()) != null)
+         {
+            handler.outputDone(output.readableBytes());
+         }
+      }
+   }
+
+   @Test
+   public void testDispatchAllocation() throws Exception
+   {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+      com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+      Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+
+      Flows single = new Flows(0);
+      Flows stacked = new Flows(STACKED_HANDLERS);
+
+      // warming up both, including the growth of the drain arrays
+      single.run(ITERATIONS / 10);
+      stacked.run(ITERATIONS / 10);
+
+      long threadId = Thread.currentThread().getId();
+
+      long allocated = threadBean.getThreadAllocatedBytes(threadId);
+      single.run(ITERATIONS);
+      long allocatedSingle = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+      allocated = threadBean.getThreadAllocatedBytes(threadId);
+      stacked.run(ITERATIONS);
+      long allocatedStacked = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+      Assert.assertTrue(single.counter.transports > 0);
+      Assert.assertEquals(single.counter.transports, stacked.counter.transports);
+
+      double perFlushSingle = (double) allocatedSingle / ITERATIONS;
+      double perFlushStacked = (double) allocatedStacked / ITERATIONS;
+
+      System.out.println("Flushing " + ITERATIONS + " times " + EVENTS_PER_FLUSH + " flow events");
+      System.out.println("1 handler: " + perFlushSingle + " bytes per flush");
+      System.out.println((STACKED_HANDLERS + 1) + " handlers: " + perFlushStacked + " bytes per flush");
+
+      // the handlers don't allocate, the dispatch over them shouldn't either
+      Assert.assertTrue("dispatch allocated " + (perFlushStacked - perFlushSingle) + " bytes per flush",
+                        perFlushStacked - perFlushSingle < 16);
+   }
+}
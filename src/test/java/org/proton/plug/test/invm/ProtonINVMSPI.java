@@ -114,6 +114,12 @@ public class ProtonINVMSPI implements AMQPConnectionCallback
       return returningConnection;
    }
 
+   @Override
+   public void onInputCapacity(AMQPConnectionContext connection)
+   {
+
+   }
+
    @Override
    public AMQPSessionCallback createSessionCallback(AMQPConnectionContext connection)
    {
@@ -128,6 +134,12 @@ public class ProtonINVMSPI implements AMQPConnectionCallback
 
       }
 
+      @Override
+      public void onInputCapacity(AMQPConnectionContext connection)
+      {
+
+      }
+
       @Override
       public void onTransport(final ByteBuf bytes, final AMQPConnectionContext connection)
       {
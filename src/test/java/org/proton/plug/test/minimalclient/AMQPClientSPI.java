@@ -102,6 +102,12 @@ public class AMQPClientSPI implements AMQPConnectionCallback
 
    }
 
+   @Override
+   public void onInputCapacity(AMQPConnectionContext connection)
+   {
+
+   }
+
    @Override
    public AMQPSessionCallback createSessionCallback(AMQPConnectionContext connection)
    {
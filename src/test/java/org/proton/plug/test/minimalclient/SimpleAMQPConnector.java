@@ -26,6 +26,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPConnectionOptions;
 import org.proton.plug.context.client.ProtonClientConnectionContextFactory;
 
 /**
@@ -36,6 +37,18 @@ public class SimpleAMQPConnector implements Connector
 {
    private Bootstrap bootstrap;
 
+   private final ProtonClientConnectionContextFactory factory;
+
+   public SimpleAMQPConnector()
+   {
+      this(new AMQPConnectionOptions());
+   }
+
+   public SimpleAMQPConnector(AMQPConnectionOptions options)
+   {
+      factory = new ProtonClientConnectionContextFactory(options);
+   }
+
    public void start()
    {
 
@@ -63,7 +76,7 @@ public class SimpleAMQPConnector implements Connector
 
       AMQPClientSPI clientConnectionSPI = new AMQPClientSPI(future.channel());
 
-      final AMQPClientConnectionContext connection = (AMQPClientConnectionContext) ProtonClientConnectionContextFactory.getFactory().createConnection(clientConnectionSPI);
+      final AMQPClientConnectionContext connection = (AMQPClientConnectionContext) factory.createConnection(clientConnectionSPI);
 
       future.channel().pipeline().addLast(
          new ChannelDuplexHandler()
@@ -128,12 +128,12 @@ public class MinimalConnectionSPI implements AMQPConnectionCallback
          }
       }
       connection.outputDone(bufferSize);
+   }
 
-
-//      if (connection.capacity() > 0)
-//      {
-//         channel.read();
-//      }
+   @Override
+   public void onInputCapacity(AMQPConnectionContext connection)
+   {
+      channel.config().setAutoRead(true);
    }
 
    @Override
@@ -16,6 +16,7 @@ package org.proton.plug.test.minimalserver;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
@@ -37,6 +38,7 @@ import io.netty.util.ResourceLeakDetector;
 import io.netty.util.concurrent.GlobalEventExecutor;
 
 import org.proton.plug.AMQPConnectionContext;
+import org.proton.plug.AMQPConnectionOptions;
 import org.proton.plug.AMQPServerConnectionContext;
 import org.proton.plug.ServerSASL;
 import org.proton.plug.context.server.ProtonServerConnectionContextFactory;
@@ -81,11 +83,29 @@ public class MinimalServer
    // Constants.PORT is the default here
    private int port;
 
+   private AMQPConnectionOptions options = new AMQPConnectionOptions();
+
+   private ProtonServerConnectionContextFactory factory;
+
+   // when set, the connections are pinned to it
+   private Executor connectionExecutor;
+
+   public void setOptions(AMQPConnectionOptions options)
+   {
+      this.options = options;
+   }
+
+   public void setConnectionExecutor(Executor executor)
+   {
+      this.connectionExecutor = executor;
+   }
+
    public synchronized void start(String host, int port, final boolean sasl) throws Exception
    {
       this.host = host;
       this.port = port;
       this.sasl = sasl;
+      this.factory = new ProtonServerConnectionContextFactory(options);
 
       if (channelClazz != null)
       {
@@ -116,7 +136,6 @@ public class MinimalServer
       bootstrap.option(ChannelOption.SO_REUSEADDR, true).
                 childOption(ChannelOption.SO_REUSEADDR, true).
                 childOption(ChannelOption.SO_KEEPALIVE, true).
-//                childOption(ChannelOption.AUTO_READ, false).
                 childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
       channelGroup = new DefaultChannelGroup("hornetq-accepted-channels", GlobalEventExecutor.INSTANCE);
@@ -145,23 +164,31 @@ public class MinimalServer
       public void channelActive(ChannelHandlerContext ctx) throws Exception
       {
          super.channelActive(ctx);
-         connection = ProtonServerConnectionContextFactory.getFactory().createConnection(new MinimalConnectionSPI(ctx.channel()));
+         connection = factory.createConnection(new MinimalConnectionSPI(ctx.channel()));
+         if (connectionExecutor != null)
+         {
+            connection.setExecutor(connectionExecutor);
+         }
          if (sasl)
          {
             connection.createServerSASL(new ServerSASL[]{new ServerSASLPlain()});
          }
-         //ctx.read();
       }
 
       @Override
       protected void decode(final ChannelHandlerContext ctx, ByteBuf byteIn, List<Object> out) throws Exception
       {
-         connection.inputBuffer(byteIn);
+         if (!connection.inputBuffer(byteIn))
+         {
+            // the connection is holding what it couldn't take, MinimalConnectionSPI.onInputCapacity will turn it back on
+            ctx.channel().config().setAutoRead(false);
+            if (!connection.inputPaused())
+            {
+               // a flush on another thread took the bytes before we stopped
+               ctx.channel().config().setAutoRead(true);
+            }
+         }
          ctx.flush();
-//         if (connection.capacity() > 0)
-//         {
-//            ctx.read();
-//         }
       }
    }
 
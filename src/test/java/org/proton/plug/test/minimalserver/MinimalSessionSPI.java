@@ -13,15 +13,23 @@
 
 package org.proton.plug.test.minimalserver;
 
+import java.util.List;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.apache.qpid.proton.amqp.Binary;
 import org.apache.qpid.proton.engine.Delivery;
 import org.apache.qpid.proton.engine.Receiver;
 import org.apache.qpid.proton.message.ProtonJMessage;
+import org.proton.plug.AMQPCreditPolicy;
+import org.proton.plug.AMQPSendCompletion;
 import org.proton.plug.AMQPSessionCallback;
 import org.proton.plug.AMQPSessionContext;
 import org.proton.plug.context.ProtonPlugSender;
@@ -39,9 +47,13 @@ public class MinimalSessionSPI implements AMQPSessionCallback
    private SASLResult result;
    ProtonServerSessionContext session;
 
+   // the last session created, so tests can act as the broker on it
+   public static volatile AMQPSessionContext lastSession;
+
    @Override
    public void init(AMQPSessionContext session, SASLResult result)
    {
+      lastSession = session;
       this.session = (ProtonServerSessionContext)session;
       this.result = result;
    }
@@ -58,9 +70,21 @@ public class MinimalSessionSPI implements AMQPSessionCallback
       return "TempQueueName" + tempQueueGenerator.incrementAndGet();
    }
 
+   // the last sender created, so tests can look at its deliveries
+   public static volatile ProtonPlugSender lastSender;
+
+   public static final AtomicInteger resumedDeliveries = new AtomicInteger(0);
+
+   public static final AtomicInteger ackedMessages = new AtomicInteger(0);
+
+   public static final AtomicBoolean failNextAckBatch = new AtomicBoolean(false);
+
+   public static final AtomicInteger cancelledMessages = new AtomicInteger(0);
+
    @Override
    public Object createSender(ProtonPlugSender plugSender, String queue, String filer, boolean browserOnly)
    {
+      lastSender = plugSender;
       Consumer consumer = new Consumer(DumbServer.getQueue(queue));
       return consumer;
    }
@@ -94,6 +118,12 @@ public class MinimalSessionSPI implements AMQPSessionCallback
       ((Consumer)brokerConsumer).close();
    }
 
+   @Override
+   public AMQPCreditPolicy createCreditPolicy(String address)
+   {
+      return null;
+   }
+
    @Override
    public ProtonJMessage encodeMessage(Object message, int deliveryCount)
    {
@@ -130,15 +160,26 @@ public class MinimalSessionSPI implements AMQPSessionCallback
    }
 
    @Override
-   public void cancel(Object brokerConsumer, Object message, boolean updateCounts)
+   public void ackBatch(Object brokerConsumer, List<Object> messages)
    {
+      if (failNextAckBatch.compareAndSet(true, false))
+      {
+         throw new IllegalStateException("failing the ack batch");
+      }
+      ackedMessages.addAndGet(messages.size());
+   }
 
+   @Override
+   public void cancel(Object brokerConsumer, Object message, boolean updateCounts)
+   {
+      cancelledMessages.incrementAndGet();
    }
 
    @Override
    public void resumeDelivery(Object consumer)
    {
       System.out.println("Resume delivery!!!");
+      resumedDeliveries.incrementAndGet();
       ((Consumer)consumer).start();
    }
 
@@ -152,6 +193,69 @@ public class MinimalSessionSPI implements AMQPSessionCallback
       queue.add(serverMessage);
    }
 
+   // plays the role of the broker's journal, completing the sends out of the connection's thread
+   static final ExecutorService storeExecutor = Executors.newSingleThreadExecutor(new SimpleServerThreadFactory("store", true, MinimalSessionSPI.class.getClassLoader()));
+
+   @Override
+   public void serverSend(Receiver receiver, Delivery delivery, String address, int messageFormat, ByteBuf buffer, final AMQPSendCompletion completion)
+   {
+      serverSend(receiver, delivery, address, messageFormat, buffer);
+      storeExecutor.execute(new Runnable()
+      {
+         public void run()
+         {
+            completion.done();
+         }
+      });
+   }
+
+   // for tests, chunks will wait on this gate, as a slow broker would
+   public static volatile CountDownLatch chunkGate;
+
+   public static volatile Delivery gatedDelivery;
+
+   // for tests, the last chunk of the next large message will fail
+   public static final AtomicBoolean failNextLastChunk = new AtomicBoolean(false);
+
+   @Override
+   public void serverSendChunk(Receiver receiver, Delivery delivery, String address, int messageFormat, ByteBuf chunk, boolean last)
+   {
+      CountDownLatch gate = chunkGate;
+      if (gate != null)
+      {
+         gatedDelivery = delivery;
+         try
+         {
+            gate.await(5, TimeUnit.SECONDS);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      if (last && failNextLastChunk.compareAndSet(true, false))
+      {
+         delivery.setContext(null);
+         throw new IllegalStateException("failing the last chunk");
+      }
+
+      // this dumb server just puts the chunks together, a real broker would spool them
+      ByteBuf message = (ByteBuf) delivery.getContext();
+      if (message == null)
+      {
+         message = Unpooled.buffer(chunk.readableBytes());
+         delivery.setContext(message);
+      }
+      message.writeBytes(chunk);
+
+      if (last)
+      {
+         delivery.setContext(null);
+         serverSend(receiver, delivery, address, messageFormat, message);
+      }
+   }
+
 
    class Consumer
    {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.selector;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.selector.Selector;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * How many messages a compiled selector can evaluate per second, each message freshly decoded as the broker
+ * would receive it
+ * @author Clebert Suconic
+ */
+public class MicroBenchmarkSelectorTest
+{
+   private static final int NUMBER_OF_MESSAGES = 1000000;
+
+   @Test
+   public void testMatches() throws Exception
+   {
+      ProtonServerMessage template = SelectorTest.createMessage();
+      byte[] encoded = new byte[template.getRawMessage().readableBytes()];
+      template.getRawMessage().readBytes(encoded);
+
+      Selector selector = Selector.compile("color IN ('red', 'blue') AND size > 5 AND JMSDeliveryMode = 'PERSISTENT'");
+
+      ProtonServerMessage message = new ProtonServerMessage();
+
+      // warm up
+      for (int i = 0; i < NUMBER_OF_MESSAGES / 10; i++)
+      {
+         message.decode(encoded, 0, encoded.length);
+         selector.matches(message);
+      }
+
+      long start = System.nanoTime();
+      int matches = 0;
+      for (int i = 0; i < NUMBER_OF_MESSAGES; i++)
+      {
+         message.decode(encoded, 0, encoded.length);
+         if (selector.matches(message))
+         {
+            matches++;
+         }
+      }
+      long taken = System.nanoTime() - start;
+
+      Assert.assertEquals(NUMBER_OF_MESSAGES, matches);
+      System.out.println(NUMBER_OF_MESSAGES + " messages in " + taken / 1000000 + " milliseconds, " +
+                            (long) (NUMBER_OF_MESSAGES / (taken / 1000000000.0)) + " matches/second");
+   }
+}
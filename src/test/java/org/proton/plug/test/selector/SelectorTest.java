@@ -0,0 +1,128 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.selector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Header;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.exceptions.HornetQAMQPInvalidFieldException;
+import org.proton.plug.selector.Selector;
+import org.proton.plug.util.NettyWritable;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * @author Clebert Suconic
+ */
+public class SelectorTest
+{
+   static ProtonServerMessage createMessage()
+   {
+      MessageImpl message = (MessageImpl) Message.Factory.create();
+      Header header = new Header();
+      header.setDurable(true);
+      message.setHeader(header);
+      message.setSubject("order");
+
+      Map<String, Object> props = new HashMap<>();
+      props.put("color", "red");
+      props.put("size", 10);
+      props.put("weight", 2.5d);
+      props.put("urgent", true);
+      props.put("description", "a 50% discount");
+      for (int i = 0; i < 20; i++)
+      {
+         props.put("other" + i, "value" + i);
+      }
+      message.setApplicationProperties(new ApplicationProperties(props));
+
+      ByteBuf buffer = Unpooled.buffer(1024);
+      message.encode(new NettyWritable(buffer));
+
+      ProtonServerMessage serverMessage = new ProtonServerMessage();
+      serverMessage.decode(buffer.nioBuffer());
+      return serverMessage;
+   }
+
+   private static boolean matches(String selector, ProtonServerMessage message) throws Exception
+   {
+      return Selector.compile(selector).matches(message);
+   }
+
+   @Test
+   public void testSelectors() throws Exception
+   {
+      ProtonServerMessage message = createMessage();
+
+      Assert.assertTrue(matches("color = 'red'", message));
+      Assert.assertFalse(matches("color <> 'red'", message));
+      Assert.assertTrue(matches("color = 'red' AND size > 5", message));
+      Assert.assertTrue(matches("color = 'blue' OR size >= 10", message));
+      Assert.assertTrue(matches("size BETWEEN 5 AND 10", message));
+      Assert.assertFalse(matches("size NOT BETWEEN 5 AND 10", message));
+      Assert.assertTrue(matches("size * 2 + 1 = 21", message));
+      Assert.assertTrue(matches("weight < 3", message));
+      Assert.assertTrue(matches("-size < 0", message));
+      Assert.assertTrue(matches("color IN ('blue', 'red')", message));
+      Assert.assertTrue(matches("color NOT IN ('blue', 'green')", message));
+      Assert.assertTrue(matches("color LIKE 'r_d'", message));
+      Assert.assertTrue(matches("description LIKE '%50\\% %' ESCAPE '\\'", message));
+      Assert.assertFalse(matches("description LIKE '%60\\% %' ESCAPE '\\'", message));
+      Assert.assertTrue(matches("urgent", message));
+      Assert.assertTrue(matches("urgent = TRUE", message));
+      Assert.assertTrue(matches("other19 = 'value19'", message));
+      Assert.assertTrue(matches("JMSDeliveryMode = 'PERSISTENT' AND JMSType = 'order'", message));
+      Assert.assertTrue(matches("JMSPriority = 4", message));
+   }
+
+   @Test
+   public void testUnknown() throws Exception
+   {
+      ProtonServerMessage message = createMessage();
+
+      // a missing property is unknown, which is never selected (not even when negated)
+      Assert.assertFalse(matches("missing = 'red'", message));
+      Assert.assertFalse(matches("NOT (missing = 'red')", message));
+      Assert.assertTrue(matches("missing IS NULL", message));
+      Assert.assertFalse(matches("color IS NULL", message));
+      Assert.assertTrue(matches("missing = 'red' OR color = 'red'", message));
+
+      // comparing different types is unknown too
+      Assert.assertFalse(matches("color > 5", message));
+      Assert.assertFalse(matches("NOT (color > 5)", message));
+   }
+
+   @Test
+   public void testInvalidSelectors() throws Exception
+   {
+      for (String selector : new String[]{"color = ", "color = 'red", "(size > 5", "size BETWEEN 5", "color LIKE red", "size >> 5", "5"})
+      {
+         try
+         {
+            Selector.compile(selector);
+            Assert.fail("invalid selector compiled: " + selector);
+         }
+         catch (HornetQAMQPInvalidFieldException expected)
+         {
+         }
+      }
+   }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.util.AdaptiveCreditPolicy;
+
+/**
+ * @author Clebert Suconic
+ */
+public class AdaptiveCreditPolicyTest
+{
+   private static final long FAST = 1000;
+
+   private static final long SLOW = 1000 * 1000;
+
+   @Test
+   public void testGrowWhenFast()
+   {
+      AdaptiveCreditPolicy policy = new AdaptiveCreditPolicy(10, 100, 1000, 10 * FAST, SLOW / 10);
+      Assert.assertEquals(100, policy.getInitialCredits());
+
+      int remoteCredit = policy.getInitialCredits();
+      for (int i = 0; i < 10000; i++)
+      {
+         remoteCredit--;
+         remoteCredit += policy.getCredits(remoteCredit, FAST);
+      }
+
+      Assert.assertEquals(1000, policy.getWindow());
+      Assert.assertTrue(remoteCredit >= 500);
+   }
+
+   @Test
+   public void testShrinkWhenSlow()
+   {
+      AdaptiveCreditPolicy policy = new AdaptiveCreditPolicy(10, 100, 1000, 10 * FAST, SLOW / 10);
+
+      int remoteCredit = policy.getInitialCredits();
+      for (int i = 0; i < 1000; i++)
+      {
+         remoteCredit--;
+         remoteCredit += policy.getCredits(remoteCredit, SLOW);
+      }
+
+      Assert.assertEquals(10, policy.getWindow());
+      Assert.assertTrue(remoteCredit <= 10);
+   }
+
+   @Test
+   public void testMemoryPressure()
+   {
+      AdaptiveCreditPolicy policy = new AdaptiveCreditPolicy();
+
+      policy.setMemoryPressure(true);
+      Assert.assertEquals(0, policy.getCredits(0, FAST));
+      Assert.assertEquals(0, policy.getCredits(0, -1));
+
+      policy.setMemoryPressure(false);
+      Assert.assertEquals(AdaptiveCreditPolicy.DEFAULT_MIN_CREDITS, policy.getCredits(0, -1));
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPConnectionCallback;
+import org.proton.plug.AMQPConnectionContext;
+import org.proton.plug.AMQPSessionCallback;
+import org.proton.plug.context.server.ProtonServerConnectionContext;
+
+/**
+ * scheduleFlush should only flush once per batch, or once per executor round
+ * @author Clebert Suconic
+ */
+public class BatchFlushTest
+{
+   @Test
+   public void testNoBatch()
+   {
+      CountingConnection connection = new CountingConnection();
+
+      for (int i = 0; i < 5; i++)
+      {
+         connection.scheduleFlush();
+      }
+
+      Assert.assertEquals(5, connection.flushes);
+   }
+
+   @Test
+   public void testBatchSize()
+   {
+      CountingConnection connection = new CountingConnection();
+      connection.setBatchFlush(3, null);
+
+      connection.scheduleFlush();
+      connection.scheduleFlush();
+      Assert.assertEquals(0, connection.flushes);
+
+      connection.scheduleFlush();
+      Assert.assertEquals(1, connection.flushes);
+
+      // the count starts over after the flush
+      connection.scheduleFlush();
+      connection.scheduleFlush();
+      Assert.assertEquals(1, connection.flushes);
+      connection.scheduleFlush();
+      Assert.assertEquals(2, connection.flushes);
+   }
+
+   @Test
+   public void testExecutorFlush()
+   {
+      QueueExecutor executor = new QueueExecutor();
+      CountingConnection connection = new CountingConnection();
+      connection.setBatchFlush(100, executor);
+
+      for (int i = 0; i < 10; i++)
+      {
+         connection.scheduleFlush();
+      }
+
+      // only one flush is scheduled for the whole batch
+      Assert.assertEquals(0, connection.flushes);
+      Assert.assertEquals(1, executor.tasks.size());
+
+      executor.runAll();
+      Assert.assertEquals(1, connection.flushes);
+
+      connection.scheduleFlush();
+      Assert.assertEquals(1, executor.tasks.size());
+      executor.runAll();
+      Assert.assertEquals(2, connection.flushes);
+   }
+
+   @Test
+   public void testBatchSizeWithExecutor()
+   {
+      QueueExecutor executor = new QueueExecutor();
+      CountingConnection connection = new CountingConnection();
+      connection.setBatchFlush(2, executor);
+
+      connection.scheduleFlush();
+      connection.scheduleFlush();
+
+      // the batch was full before the executor had a chance
+      Assert.assertEquals(1, connection.flushes);
+
+      executor.runAll();
+      Assert.assertEquals(2, connection.flushes);
+   }
+
+   static class CountingConnection extends ProtonServerConnectionContext
+   {
+      int flushes;
+
+      CountingConnection()
+      {
+         super(new NoopCallback());
+      }
+
+      @Override
+      public void flush()
+      {
+         flushes++;
+         super.flush();
+      }
+   }
+
+   static class QueueExecutor implements Executor
+   {
+      final List<Runnable> tasks = new ArrayList<>();
+
+      public void execute(Runnable command)
+      {
+         tasks.add(command);
+      }
+
+      void runAll()
+      {
+         List<Runnable> run = new ArrayList<>(tasks);
+         tasks.clear();
+         for (Runnable task : run)
+         {
+            task.run();
+         }
+      }
+   }
+
+   static class NoopCallback implements AMQPConnectionCallback
+   {
+      private AMQPConnectionContext connection;
+
+      public void close()
+      {
+      }
+
+      public void onTransport(ByteBuf bytes, AMQPConnectionContext connection)
+      {
+         connection.outputDone(bytes.readableBytes());
+         bytes.release();
+      }
+
+      public void onInputCapacity(AMQPConnectionContext connection)
+      {
+      }
+
+      public AMQPSessionCallback createSessionCallback(AMQPConnectionContext connection)
+      {
+         return null;
+      }
+
+      public void setConnection(AMQPConnectionContext connection)
+      {
+         this.connection = connection;
+      }
+
+      public AMQPConnectionContext getConnection()
+      {
+         return connection;
+      }
+   }
+}
@@ -146,4 +146,17 @@ public class CreditsSemaphoreTest
       Assert.assertFalse(semaphore.hasQueuedThreads());
    }
 
+   @Test
+   public void testAcquireUpTo() throws Exception
+   {
+      Assert.assertEquals(4, semaphore.tryAcquire(4));
+      Assert.assertEquals(6, semaphore.acquireUpTo(100));
+      Assert.assertEquals(0, semaphore.tryAcquire(3));
+      Assert.assertEquals(0, semaphore.getCredits());
+
+      semaphore.setCredits(2);
+      Assert.assertEquals(1, semaphore.acquireUpTo(1));
+      Assert.assertEquals(1, semaphore.getCredits());
+   }
+
 }
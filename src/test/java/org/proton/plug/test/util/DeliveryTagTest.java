@@ -0,0 +1,134 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.context.server.ProtonServerSessionContext;
+
+/**
+ * Tags of settled deliveries are given to new deliveries, so new tags are only created while the window grows
+ * @author Clebert Suconic
+ */
+public class DeliveryTagTest
+{
+   // the tags don't need a real session
+   final ProtonServerSessionContext session = new ProtonServerSessionContext(null, null, null);
+
+   @Test
+   public void testUniqueTags()
+   {
+      Set<String> tags = new HashSet<>();
+      for (int i = 0; i < 1000; i++)
+      {
+         Assert.assertTrue(tags.add(new String(session.getTag())));
+      }
+   }
+
+   @Test
+   public void testRecycle()
+   {
+      byte[] first = session.getTag();
+      byte[] second = session.getTag();
+
+      session.replaceTag(first);
+      Assert.assertSame(first, session.getTag());
+
+      // nothing left to recycle, and the outstanding one is not repeated
+      byte[] third = session.getTag();
+      Assert.assertNotSame(first, third);
+      Assert.assertFalse(new String(second).equals(new String(third)));
+   }
+
+   @Test
+   public void testBoundedByWindow()
+   {
+      Set<String> seen = new HashSet<>();
+      List<byte[]> window = new ArrayList<>();
+
+      for (int round = 0; round < 100; round++)
+      {
+         for (int i = 0; i < 10; i++)
+         {
+            byte[] tag = session.getTag();
+            seen.add(new String(tag));
+            window.add(tag);
+         }
+
+         for (byte[] tag : window)
+         {
+            session.replaceTag(tag);
+         }
+         window.clear();
+      }
+
+      Assert.assertEquals(10, seen.size());
+   }
+
+   @Test
+   public void testPoolCap()
+   {
+      Set<String> burstTags = new HashSet<>();
+      List<byte[]> burst = takeTags(2000, burstTags);
+      for (byte[] tag : burst)
+      {
+         session.replaceTag(tag);
+      }
+
+      // the same window again doesn't need any new tags
+      burst = takeTags(2000, burstTags);
+      Assert.assertEquals(2000, burstTags.size());
+      for (byte[] tag : burst)
+      {
+         session.replaceTag(tag);
+      }
+
+      // after a while on a window of 10 the burst is released
+      for (int round = 0; round < 2000; round++)
+      {
+         for (byte[] tag : takeTags(10, burstTags))
+         {
+            session.replaceTag(tag);
+         }
+      }
+
+      int newTags = 0;
+      for (int i = 0; i < 2000; i++)
+      {
+         if (!burstTags.contains(new String(session.getTag())))
+         {
+            newTags++;
+         }
+      }
+
+      // only about the last window was kept on the pool
+      Assert.assertTrue(newTags >= 1900);
+   }
+
+   private List<byte[]> takeTags(int count, Set<String> seen)
+   {
+      List<byte[]> tags = new ArrayList<>();
+      for (int i = 0; i < count; i++)
+      {
+         byte[] tag = session.getTag();
+         tags.add(tag);
+         seen.add(new String(tag));
+      }
+      return tags;
+   }
+}
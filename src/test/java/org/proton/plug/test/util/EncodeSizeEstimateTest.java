@@ -0,0 +1,88 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.util.EncodeSizeEstimate;
+
+/**
+ * @author Clebert Suconic
+ */
+public class EncodeSizeEstimateTest
+{
+   final EncodeSizeEstimate estimate = new EncodeSizeEstimate();
+
+   @Test
+   public void testMinimum()
+   {
+      Assert.assertEquals(EncodeSizeEstimate.MIN_SIZE, estimate.get());
+
+      for (int i = 0; i < 100; i++)
+      {
+         estimate.update(10);
+      }
+      Assert.assertEquals(EncodeSizeEstimate.MIN_SIZE, estimate.get());
+   }
+
+   @Test
+   public void testGrowsAtOnce()
+   {
+      estimate.update(100000);
+      Assert.assertEquals(100000, estimate.get());
+   }
+
+   @Test
+   public void testDecay()
+   {
+      estimate.update(10000);
+
+      estimate.update(2000);
+      // 1/8 of the way towards the last size
+      Assert.assertEquals(9000, estimate.get());
+
+      int last = estimate.get();
+      for (int i = 0; i < 100; i++)
+      {
+         estimate.update(2000);
+         Assert.assertTrue(estimate.get() <= last);
+         Assert.assertTrue(estimate.get() >= 2000);
+         last = estimate.get();
+      }
+
+      // close enough to the actual size after a while
+      Assert.assertTrue(estimate.get() < 2100);
+
+      // and a larger message takes it back up at once
+      estimate.update(5000);
+      Assert.assertEquals(5000, estimate.get());
+   }
+
+   @Test
+   public void testCap()
+   {
+      EncodeSizeEstimate capped = new EncodeSizeEstimate(16 * 1024);
+
+      capped.update(10 * 1024 * 1024);
+      Assert.assertEquals(16 * 1024, capped.get());
+
+      // and it still decays from there
+      capped.update(2000);
+      Assert.assertTrue(capped.get() < 16 * 1024);
+
+      // a cap under the minimum is taken as the minimum
+      capped = new EncodeSizeEstimate(10);
+      capped.update(5000);
+      Assert.assertEquals(EncodeSizeEstimate.MIN_SIZE, capped.get());
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.UnsignedInteger;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Header;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.util.DeliveryUtil;
+import org.proton.plug.util.EncodedMessageCache;
+
+/**
+ * @author Clebert Suconic
+ */
+public class EncodedMessageCacheTest
+{
+   private MessageImpl createMessage(int bodySize)
+   {
+      MessageImpl message = (MessageImpl) Message.Factory.create();
+      Header header = new Header();
+      header.setDurable(true);
+      header.setDeliveryCount(UnsignedInteger.valueOf(0));
+      message.setHeader(header);
+      message.setAddress("Test");
+      message.setBody(new Data(new Binary(new byte[bodySize])));
+      return message;
+   }
+
+   @Test
+   public void testPatchDeliveryCount()
+   {
+      EncodedMessageCache cache = new EncodedMessageCache(1024 * 1024);
+
+      EncodedMessageCache.Entry entry = cache.put("key", createMessage(100));
+      ByteBuf header = entry.encodeHeader(7);
+      ByteBuf sections = entry.getSections();
+
+      ByteBuf delivery = Unpooled.buffer();
+      delivery.writeBytes(header);
+      delivery.writeBytes(sections);
+      header.release();
+      sections.release();
+
+      MessageImpl decoded = DeliveryUtil.decodeMessageImpl(delivery);
+      Assert.assertEquals(7, decoded.getHeader().getDeliveryCount().intValue());
+      Assert.assertTrue(decoded.getHeader().getDurable());
+      Assert.assertEquals("Test", decoded.getAddress());
+      Assert.assertEquals(100, ((Data) decoded.getBody()).getValue().getLength());
+
+      EncodedMessageCache.Entry sameEntry = cache.acquire("key");
+      Assert.assertSame(entry, sameEntry);
+      sameEntry.getSections().release();
+   }
+
+   @Test
+   public void testEviction()
+   {
+      EncodedMessageCache cache = new EncodedMessageCache(5000);
+
+      for (int i = 0; i < 10; i++)
+      {
+         cache.put("key" + i, createMessage(1000)).getSections().release();
+      }
+
+      Assert.assertTrue(cache.getCurrentBytes() <= 5000);
+      Assert.assertTrue(cache.size() < 10);
+      Assert.assertNull(cache.acquire("key0"));
+      EncodedMessageCache.Entry last = cache.acquire("key9");
+      Assert.assertNotNull(last);
+
+      // evicted while in use, the bytes are still valid until released
+      ByteBuf sections = last.getSections();
+      cache.clear();
+      Assert.assertEquals(0, cache.size());
+      Assert.assertTrue(sections.refCnt() > 0);
+      sections.release();
+      Assert.assertEquals(0, sections.refCnt());
+   }
+}
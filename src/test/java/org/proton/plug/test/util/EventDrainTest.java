@@ -0,0 +1,124 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.qpid.proton.engine.Connection;
+import org.apache.qpid.proton.engine.Session;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.handler.ProtonHandler;
+import org.proton.plug.handler.impl.DefaultEventHandler;
+
+/**
+ * Events are drained in batches out of the collector and dispatched outside of the lock
+ * @author Clebert Suconic
+ */
+public class EventDrainTest
+{
+   @Test
+   public void testManyEvents()
+   {
+      ProtonHandler handler = ProtonHandler.Factory.create();
+      SessionRecorder recorder = new SessionRecorder();
+      handler.addEventHandler(recorder);
+
+      // more events than the initial drain arrays hold
+      List<Session> sessions = new ArrayList<>();
+      synchronized (handler.getLock())
+      {
+         handler.getConnection().open();
+         for (int i = 0; i < 40; i++)
+         {
+            Session session = handler.getConnection().session();
+            session.open();
+            sessions.add(session);
+         }
+      }
+      handler.flush();
+
+      Assert.assertEquals(sessions, recorder.opened);
+   }
+
+   @Test
+   public void testEventsFromDispatch()
+   {
+      final ProtonHandler handler = ProtonHandler.Factory.create();
+      SessionRecorder recorder = new SessionRecorder()
+      {
+         @Override
+         public void onOpen(Connection connection) throws Exception
+         {
+            // the dispatch doesn't hold the lock
+            Assert.assertFalse(Thread.holdsLock(handler.getLock()));
+            synchronized (handler.getLock())
+            {
+               connection.session().open();
+            }
+         }
+      };
+      handler.addEventHandler(recorder);
+
+      synchronized (handler.getLock())
+      {
+         handler.getConnection().open();
+      }
+      handler.flush();
+
+      // the session was opened while dispatching, it should be picked up on the same flush
+      Assert.assertEquals(1, recorder.opened.size());
+   }
+
+   @Test
+   public void testFailingHandler()
+   {
+      ProtonHandler handler = ProtonHandler.Factory.create();
+      SessionRecorder recorder = new SessionRecorder()
+      {
+         @Override
+         public void onOpen(Session session) throws Exception
+         {
+            super.onOpen(session);
+            if (opened.size() == 1)
+            {
+               throw new IllegalStateException("failing on purpose");
+            }
+         }
+      };
+      handler.addEventHandler(recorder);
+
+      synchronized (handler.getLock())
+      {
+         handler.getConnection().open();
+         handler.getConnection().session().open();
+         handler.getConnection().session().open();
+      }
+      handler.flush();
+
+      // one failure doesn't lose the rest of the batch
+      Assert.assertEquals(2, recorder.opened.size());
+   }
+
+   static class SessionRecorder extends DefaultEventHandler
+   {
+      final List<Session> opened = new ArrayList<>();
+
+      @Override
+      public void onOpen(Session session) throws Exception
+      {
+         opened.add(session);
+      }
+   }
+}
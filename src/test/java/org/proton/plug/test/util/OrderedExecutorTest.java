@@ -0,0 +1,148 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.util.OrderedExecutor;
+
+/**
+ * @author Clebert Suconic
+ */
+public class OrderedExecutorTest
+{
+   private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+   @After
+   public void tearDown()
+   {
+      pool.shutdownNow();
+   }
+
+   @Test
+   public void testOrder() throws Exception
+   {
+      final int numberOfTasks = 5000;
+      final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+      final AtomicInteger concurrent = new AtomicInteger(0);
+      final AtomicInteger errors = new AtomicInteger(0);
+      final CountDownLatch done = new CountDownLatch(numberOfTasks);
+
+      OrderedExecutor executor = new OrderedExecutor(pool);
+      for (int i = 0; i < numberOfTasks; i++)
+      {
+         final int value = i;
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               if (concurrent.incrementAndGet() != 1)
+               {
+                  errors.incrementAndGet();
+               }
+               executed.add(value);
+               concurrent.decrementAndGet();
+               done.countDown();
+            }
+         });
+      }
+
+      Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+      Assert.assertEquals(0, errors.get());
+      for (int i = 0; i < numberOfTasks; i++)
+      {
+         Assert.assertEquals(i, executed.get(i).intValue());
+      }
+   }
+
+   @Test
+   public void testFailingTask() throws Exception
+   {
+      final CountDownLatch done = new CountDownLatch(1);
+      OrderedExecutor executor = new OrderedExecutor(pool);
+      executor.execute(new Runnable()
+      {
+         public void run()
+         {
+            throw new IllegalStateException("failing on purpose");
+         }
+      });
+      executor.execute(new Runnable()
+      {
+         public void run()
+         {
+            done.countDown();
+         }
+      });
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+   }
+
+   @Test
+   public void testRejected() throws Exception
+   {
+      final AtomicInteger rejections = new AtomicInteger(1);
+      Executor parent = new Executor()
+      {
+         public void execute(Runnable command)
+         {
+            if (rejections.getAndDecrement() > 0)
+            {
+               throw new RejectedExecutionException("rejecting on purpose");
+            }
+            pool.execute(command);
+         }
+      };
+
+      final AtomicInteger executed = new AtomicInteger(0);
+      final CountDownLatch done = new CountDownLatch(1);
+      OrderedExecutor executor = new OrderedExecutor(parent);
+
+      try
+      {
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               executed.incrementAndGet();
+            }
+         });
+         Assert.fail("the parent should have rejected it");
+      }
+      catch (RejectedExecutionException expected)
+      {
+      }
+
+      // it's not stuck as running, and the rejected task is gone
+      executor.execute(new Runnable()
+      {
+         public void run()
+         {
+            done.countDown();
+         }
+      });
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(0, executed.get());
+   }
+}
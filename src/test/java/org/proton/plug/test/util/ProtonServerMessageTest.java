@@ -0,0 +1,215 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.proton.plug.test.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Footer;
+import org.apache.qpid.proton.amqp.messaging.Header;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.util.DeliveryUtil;
+import org.proton.plug.util.NettyWritable;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * @author Clebert Suconic
+ */
+public class ProtonServerMessageTest
+{
+   private ByteBuf encode(MessageImpl message)
+   {
+      ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+      message.encode(new NettyWritable(buffer));
+      return buffer;
+   }
+
+   private MessageImpl createMessage()
+   {
+      MessageImpl message = (MessageImpl) Message.Factory.create();
+      Header header = new Header();
+      header.setDurable(true);
+      message.setHeader(header);
+      message.setAddress("Test");
+
+      Map<String, Object> props = new HashMap<>();
+      props.put("color", "red");
+      props.put("count", 10);
+      message.setApplicationProperties(new ApplicationProperties(props));
+      message.setBody(new Data(new Binary(new byte[]{1, 2, 3, 4, 5})));
+      return message;
+   }
+
+   @Test
+   public void testRawMessage()
+   {
+      ByteBuf encoded = encode(createMessage());
+      try
+      {
+         ProtonServerMessage serverMessage = new ProtonServerMessage();
+         serverMessage.decode(encoded.nioBuffer());
+
+         ByteBuf raw = serverMessage.getRawMessage();
+         Assert.assertEquals(encoded, raw);
+
+         ByteBuf reencoded = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+         serverMessage.encode(new NettyWritable(reencoded));
+         Assert.assertEquals(encoded, reencoded);
+         reencoded.release();
+
+         MessageImpl decoded = DeliveryUtil.decodeMessageImpl(raw);
+         Assert.assertEquals("Test", decoded.getAddress());
+         Assert.assertEquals("red", decoded.getApplicationProperties().getValue().get("color"));
+      }
+      finally
+      {
+         encoded.release();
+      }
+   }
+
+   @Test
+   public void testLazySections()
+   {
+      ByteBuf encoded = encode(createMessage());
+      try
+      {
+         byte[] bytes = new byte[encoded.readableBytes()];
+         encoded.getBytes(encoded.readerIndex(), bytes);
+
+         ProtonServerMessage serverMessage = new ProtonServerMessage();
+         serverMessage.decode(bytes, 0, bytes.length);
+
+         Assert.assertEquals("Test", serverMessage.getAddress());
+         Assert.assertTrue(serverMessage.isDurable());
+         Assert.assertEquals(0, serverMessage.getDeliveryCount());
+         Assert.assertNull(serverMessage.getMessageAnnotations());
+         Assert.assertEquals("red", serverMessage.getApplicationProperties().getValue().get("color"));
+         Assert.assertEquals(5, ((Data) serverMessage.getBody()).getValue().getLength());
+         Assert.assertNull(serverMessage.getFooter());
+
+         // the body wasn't copied
+         ByteBuf rawBody = serverMessage.getRawBody();
+         Assert.assertSame(bytes, rawBody.array());
+         Assert.assertEquals(bytes.length - rawBody.arrayOffset(), rawBody.readableBytes());
+      }
+      finally
+      {
+         encoded.release();
+      }
+   }
+
+   @Test
+   public void testChangeHeaderAndAnnotations()
+   {
+      ByteBuf encoded = encode(createMessage());
+      try
+      {
+         ProtonServerMessage serverMessage = new ProtonServerMessage();
+         serverMessage.decode(encoded.nioBuffer());
+
+         serverMessage.setDeliveryCount(3);
+         serverMessage.setTtl(1000);
+         serverMessage.setMessageAnnotation("x-opt-test", "value");
+         Assert.assertNull(serverMessage.getRawMessage());
+
+         ByteBuf reencoded = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+         serverMessage.encode(new NettyWritable(reencoded));
+
+         MessageImpl decoded = DeliveryUtil.decodeMessageImpl(reencoded);
+         reencoded.release();
+
+         Assert.assertEquals(3, decoded.getDeliveryCount());
+         Assert.assertEquals(1000, decoded.getTtl());
+         Assert.assertTrue(decoded.isDurable());
+         Assert.assertEquals("value", decoded.getMessageAnnotations().getValue().get(Symbol.valueOf("x-opt-test")));
+         Assert.assertEquals("Test", decoded.getAddress());
+         Assert.assertEquals("red", decoded.getApplicationProperties().getValue().get("color"));
+         Assert.assertEquals(5, ((Data) decoded.getBody()).getValue().getLength());
+      }
+      finally
+      {
+         encoded.release();
+      }
+   }
+
+   @Test
+   public void testChangeBody()
+   {
+      ByteBuf encoded = encode(createMessage());
+      try
+      {
+         ProtonServerMessage serverMessage = new ProtonServerMessage();
+         serverMessage.decode(encoded.nioBuffer());
+
+         serverMessage.setBody(new Data(new Binary(new byte[]{9, 9})));
+         Assert.assertTrue(serverMessage.isModified());
+         // the original bytes can't be sent anymore
+         Assert.assertNull(serverMessage.getRawMessage());
+         Assert.assertNull(serverMessage.getRawBody());
+
+         ByteBuf reencoded = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+         serverMessage.encode(new NettyWritable(reencoded));
+
+         MessageImpl decoded = DeliveryUtil.decodeMessageImpl(reencoded);
+         reencoded.release();
+
+         Assert.assertEquals(new Binary(new byte[]{9, 9}), ((Data) decoded.getBody()).getValue());
+         Assert.assertEquals("Test", decoded.getAddress());
+         Assert.assertEquals("red", decoded.getApplicationProperties().getValue().get("color"));
+      }
+      finally
+      {
+         encoded.release();
+      }
+   }
+
+   @Test
+   public void testChangeFooter()
+   {
+      ByteBuf encoded = encode(createMessage());
+      try
+      {
+         ProtonServerMessage serverMessage = new ProtonServerMessage();
+         serverMessage.decode(encoded.nioBuffer());
+
+         Map<Object, Object> values = new HashMap<>();
+         values.put(Symbol.valueOf("x-opt-footer"), "value");
+         serverMessage.setFooter(new Footer(values));
+         Assert.assertNull(serverMessage.getRawMessage());
+
+         ByteBuf reencoded = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+         serverMessage.encode(new NettyWritable(reencoded));
+
+         MessageImpl decoded = DeliveryUtil.decodeMessageImpl(reencoded);
+         reencoded.release();
+
+         // the body was copied as it was
+         Assert.assertEquals(5, ((Data) decoded.getBody()).getValue().getLength());
+         Assert.assertEquals("value", decoded.getFooter().getValue().get(Symbol.valueOf("x-opt-footer")));
+      }
+      finally
+      {
+         encoded.release();
+      }
+   }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.Receiver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.util.ReceiveBuffer;
+
+/**
+ * @author Clebert Suconic
+ */
+public class ReceiveBufferTest
+{
+   final ReceiveBuffer receiveBuffer = new ReceiveBuffer();
+
+   @After
+   public void tearDown()
+   {
+      receiveBuffer.release();
+   }
+
+   @Test
+   public void testReuse()
+   {
+      ByteBuf first = read(100, 1);
+      assertContent(first, 100, 1);
+
+      ByteBuf second = read(200, 2);
+      Assert.assertSame(first, second);
+      assertContent(second, 200, 2);
+   }
+
+   @Test
+   public void testGrowth()
+   {
+      read(100, 1);
+
+      ByteBuf buffer = read(50000, 2);
+      assertContent(buffer, 50000, 2);
+   }
+
+   @Test
+   public void testShrink()
+   {
+      ByteBuf large = read(100000, 1);
+      Assert.assertTrue(large.capacity() >= 100000);
+
+      ByteBuf buffer = null;
+      for (int i = 0; i < 100; i++)
+      {
+         buffer = read(100, i);
+         assertContent(buffer, 100, i);
+      }
+
+      // replaced by something closer to what is being received now
+      Assert.assertNotSame(large, buffer);
+      Assert.assertTrue(buffer.capacity() <= 4 * 1024);
+   }
+
+   @Test
+   public void testRetained()
+   {
+      ByteBuf retained = read(100, 1).retain();
+
+      ByteBuf next = read(100, 2);
+      Assert.assertNotSame(retained, next);
+
+      // the receive buffer let go of it, it's now only referenced by whoever retained it
+      Assert.assertEquals(1, retained.refCnt());
+      assertContent(retained, 100, 1);
+      assertContent(next, 100, 2);
+
+      retained.release();
+      Assert.assertEquals(0, retained.refCnt());
+   }
+
+   @Test
+   public void testRelease()
+   {
+      ByteBuf buffer = read(100, 1);
+      receiveBuffer.release();
+      Assert.assertEquals(0, buffer.refCnt());
+   }
+
+   private ByteBuf read(int size, int value)
+   {
+      byte[] bytes = new byte[size];
+      for (int i = 0; i < size; i++)
+      {
+         bytes[i] = (byte) (value + i);
+      }
+
+      FakeLink link = new FakeLink(bytes);
+      return receiveBuffer.read(link.receiver(), link.delivery());
+   }
+
+   private static void assertContent(ByteBuf buffer, int size, int value)
+   {
+      Assert.assertEquals(size, buffer.readableBytes());
+      for (int i = 0; i < size; i++)
+      {
+         Assert.assertEquals((byte) (value + i), buffer.getByte(buffer.readerIndex() + i));
+      }
+   }
+
+   /**
+    * Only what ReceiveBuffer uses: Delivery.pending and Receiver.recv
+    */
+   static class FakeLink implements InvocationHandler
+   {
+      final byte[] bytes;
+
+      int position;
+
+      FakeLink(byte[] bytes)
+      {
+         this.bytes = bytes;
+      }
+
+      Receiver receiver()
+      {
+         return (Receiver) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Receiver.class}, this);
+      }
+
+      Delivery delivery()
+      {
+         return (Delivery) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Delivery.class}, this);
+      }
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         if (method.getName().equals("pending"))
+         {
+            return bytes.length - position;
+         }
+         else if (method.getName().equals("recv") && args.length == 3)
+         {
+            int count = Math.min((Integer) args[2], bytes.length - position);
+            if (count <= 0)
+            {
+               return -1;
+            }
+            System.arraycopy(bytes, position, (byte[]) args[0], (Integer) args[1], count);
+            position += count;
+            return count;
+         }
+         throw new UnsupportedOperationException(method.getName());
+      }
+   }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.message.Message;
+import org.apache.qpid.proton.message.impl.MessageImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.AMQPClientConnectionContext;
+import org.proton.plug.AMQPClientReceiverContext;
+import org.proton.plug.AMQPClientSessionContext;
+import org.proton.plug.context.ProtonPlugSender;
+import org.proton.plug.test.Constants;
+import org.proton.plug.test.minimalclient.Connector;
+import org.proton.plug.test.minimalclient.SimpleAMQPConnector;
+import org.proton.plug.test.minimalserver.MinimalSessionSPI;
+import org.proton.plug.util.ProtonServerMessage;
+
+/**
+ * tryDeliverMessage shouldn't block without credits, and the broker is told to resume once credits arrive
+ * @author Clebert Suconic
+ */
+public class TryDeliverTest extends SimpleServerAbstractTest
+{
+   public TryDeliverTest()
+   {
+      super(false, false);
+   }
+
+   @Test
+   public void testNoCredits() throws Throwable
+   {
+      Connector connector = new SimpleAMQPConnector();
+      connector.start();
+      AMQPClientConnectionContext clientConnection = connector.connect("127.0.0.1", Constants.PORT);
+      clientConnection.clientOpen(null);
+
+      AMQPClientSessionContext session = clientConnection.createClientSession();
+      MinimalSessionSPI.lastSender = null;
+      AMQPClientReceiverContext receiver = session.createReceiver("TryDeliver");
+
+      ProtonPlugSender serverSender = MinimalSessionSPI.lastSender;
+      Assert.assertNotNull(serverSender);
+
+      Assert.assertEquals(ProtonPlugSender.NO_CREDITS, serverSender.tryDeliverMessage(createMessage(0), 1));
+
+      MinimalSessionSPI.resumedDeliveries.set(0);
+      receiver.flow(1);
+
+      long timeout = System.currentTimeMillis() + 5000;
+      while (MinimalSessionSPI.resumedDeliveries.get() == 0 && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      Assert.assertTrue("resumeDelivery wasn't called", MinimalSessionSPI.resumedDeliveries.get() > 0);
+
+      Assert.assertTrue(serverSender.tryDeliverMessage(createMessage(1), 1) > 0);
+      Assert.assertNotNull(receiver.receiveMessage(5, TimeUnit.SECONDS));
+
+      // the only credit was used
+      Assert.assertEquals(ProtonPlugSender.NO_CREDITS, serverSender.tryDeliverMessage(createMessage(2), 1));
+   }
+
+   private static ProtonServerMessage createMessage(int i)
+   {
+      MessageImpl message = (MessageImpl) Message.Factory.create();
+      message.setBody(new Data(new Binary(new byte[]{(byte) i})));
+      byte[] bytes = new byte[1024];
+      int size = message.encode(bytes, 0, bytes.length);
+
+      ProtonServerMessage serverMessage = new ProtonServerMessage();
+      serverMessage.decode(ByteBuffer.wrap(bytes, 0, size));
+      return serverMessage;
+   }
+}
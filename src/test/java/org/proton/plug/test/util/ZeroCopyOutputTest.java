@@ -0,0 +1,118 @@
+/*
+ * Copyright 2005-2014 Red Hat, Inc.
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.proton.plug.test.util;
+
+import java.nio.ReadOnlyBufferException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.proton.plug.handler.ProtonHandler;
+
+/**
+ * On zero copy mode the output is a read only view over the Transport, one at a time
+ * @author Clebert Suconic
+ */
+public class ZeroCopyOutputTest
+{
+   @Test
+   public void testViewMatchesCopy()
+   {
+      ByteBuf copy = open(false).outputBuffer();
+      ByteBuf view = open(true).outputBuffer();
+
+      Assert.assertNotNull(copy);
+      Assert.assertNotNull(view);
+      Assert.assertEquals('A', view.getByte(0));
+      Assert.assertEquals('M', view.getByte(1));
+      Assert.assertEquals('Q', view.getByte(2));
+      Assert.assertEquals('P', view.getByte(3));
+      Assert.assertTrue(ByteBufUtil.equals(copy, view));
+
+      copy.release();
+   }
+
+   @Test
+   public void testViewIsReadOnly()
+   {
+      ByteBuf view = open(true).outputBuffer();
+      try
+      {
+         view.setByte(0, 0);
+         Assert.fail("the view should be read only");
+      }
+      catch (ReadOnlyBufferException expected)
+      {
+      }
+   }
+
+   @Test
+   public void testOneViewAtATime()
+   {
+      ProtonHandler handler = open(true);
+      ByteBuf view = handler.outputBuffer();
+      Assert.assertNotNull(view);
+
+      // more output while the view is out
+      synchronized (handler.getLock())
+      {
+         handler.getConnection().session().open();
+      }
+      handler.flush();
+
+      // the next view would point to the same head
+      Assert.assertNull(handler.outputBuffer());
+
+      handler.outputDone(view.readableBytes());
+
+      ByteBuf next = handler.outputBuffer();
+      Assert.assertNotNull(next);
+      Assert.assertTrue(next.readableBytes() > 0);
+      handler.outputDone(next.readableBytes());
+
+      Assert.assertNull(handler.outputBuffer());
+   }
+
+   @Test
+   public void testModeChangeWithPendingOutput()
+   {
+      ProtonHandler handler = open(true);
+      ByteBuf view = handler.outputBuffer();
+
+      try
+      {
+         handler.setZeroCopyOutput(false);
+         Assert.fail("the view is still out");
+      }
+      catch (IllegalStateException expected)
+      {
+      }
+
+      handler.outputDone(view.readableBytes());
+      handler.setZeroCopyOutput(false);
+      Assert.assertFalse(handler.isZeroCopyOutput());
+   }
+
+   private static ProtonHandler open(boolean zeroCopy)
+   {
+      ProtonHandler handler = ProtonHandler.Factory.create();
+      handler.setZeroCopyOutput(zeroCopy);
+      synchronized (handler.getLock())
+      {
+         handler.getConnection().open();
+      }
+      handler.flush();
+      return handler;
+   }
+}